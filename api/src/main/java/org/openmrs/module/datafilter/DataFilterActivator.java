@@ -9,20 +9,62 @@
  */
 package org.openmrs.module.datafilter;
 
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+import org.openmrs.module.ModuleException;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DataFilterActivator extends BaseModuleActivator {
+public class DataFilterActivator extends BaseModuleActivator implements DaemonTokenAware {
 	
 	private static final Logger log = LoggerFactory.getLogger(DataFilterActivator.class);
 	
+	private static DaemonToken daemonToken;
+	
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		daemonToken = token;
+	}
+	
+	/**
+	 * Gets the daemon token issued to this module
+	 *
+	 * @return the daemon token
+	 */
+	public static DaemonToken getDaemonToken() {
+		return daemonToken;
+	}
+	
 	/**
 	 * @see BaseModuleActivator#started()
 	 */
 	@Override
 	public void started() {
+		//Data would be exposed if hibernate didn't pick up the filters for the classes mapped with annotations
+		if (!DataFilterMetadataContributor.isContributed()) {
+			throw new ModuleException("The filters were not registered with hibernate, make sure "
+			        + DataFilterMetadataContributor.class.getName() + " is discoverable by the java service loader");
+		}
+		
 		log.info("Data Filter Module started");
+		
+		//The location closure table could be out of sync in case locations were modified while the module
+		//was stopped or via raw SQL, so we synchronize it in the background
+		Daemon.runInDaemonThread(() -> {
+			try {
+				Context.getService(DataFilterService.class).rebuildLocationClosure();
+			}
+			catch (Exception e) {
+				log.error("Failed to synchronize the location closure table", e);
+			}
+		}, daemonToken);
 	}
 	
 	/**
@@ -33,15 +75,4 @@ public class DataFilterActivator extends BaseModuleActivator {
 		log.info("Data Filter Module stopped");
 	}
 	
-	/**
-	 * @see BaseModuleActivator#willStop()
-	 */
-	@Override
-	public void willStop() {
-		if (log.isInfoEnabled()) {
-			log.info("Removing filter annotations");
-		}
-		//TODO Remove Annotations
-	}
-	
 }
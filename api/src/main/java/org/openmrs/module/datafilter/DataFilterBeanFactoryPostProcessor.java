@@ -20,9 +20,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.openmrs.util.OpenmrsClassLoader;
 import org.slf4j.Logger;
@@ -42,13 +44,14 @@ import org.springframework.stereotype.Component;
  * <ul>
  * <li>Find all filtered entities that are mapped using xml and load the contents of their hbm
  * files</li>
- * <li>Apply an xslt to all their hbm files to add the filter tags</li>
- * <li>Write the transformed contents of the hbm files to the temp directory</li>
+ * <li>Add the filter tags to all their hbm files</li>
+ * <li>Write the transformed contents of the hbm files to the mapping file cache in the application
+ * data directory, they are only transformed again when the hbm files or filters change</li>
  * <li>Load OpenMRS core's hibernate.cfg.xml file</li>
- * <li>Apply an xslt to the core hibernate.cfg.xml file to switch each mapping entry for any
+ * <li>Transform the core hibernate.cfg.xml file to switch each mapping entry for any
  * filtered entity to point to their respective paths of the transformed hbm files created
  * above</li>
- * <li>Write the transformed contents of the hibernate.cfg.xml file to the temp directory</li>
+ * <li>Write the transformed contents of the hibernate.cfg.xml file to the mapping file cache</li>
  * <li>Get the session factory bean and change the configLocations property to point to the location
  * of our transformed hibernate.cfg.xml file that references the transformed hbm files containing
  * our filters</li>
@@ -68,12 +71,11 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
 		log.info("In datafilter's BeanFactoryPostProcessor");
 		
-		try {
-			Util.initializeFilters();
-		}
-		catch (ReflectiveOperationException e) {
-			throw new BeanCreationException("Failed to initialize filters", e);
-		}
+		final long start = System.currentTimeMillis();
+		MappingFileCache.evictStaleEntries();
+		MappingResourceIndex.clearMappedClassNames();
+		
+		Util.initializeFilters();
 		
 		Map<Class<?>, List<HibernateFilterRegistration>> classFiltersMap = Util.getClassFiltersMap();
 		if (classFiltersMap.isEmpty()) {
@@ -98,32 +100,20 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 		
 		final String timestamp = Long.toString(System.currentTimeMillis());
 		
+		MappingResourceIndex mappingResourceIndex = MappingResourceIndex.build(hbmConfigFiles);
 		Map<String, Map<String, String>> cfgAndOldAndTransformedMappingFiles = new HashMap<>();
 		for (Map.Entry<Class<?>, List<HibernateFilterRegistration>> entry : classFiltersMap.entrySet()) {
-			//TODO parse the hibernate cfg file once outside of this method and reuse it everywhere,
-			//Same for the individual hbm files, Util.getMappingResource should return name and resource map
-			//So that we don't have to parse each file again when adding filters.
 			String className = entry.getKey().getName();
-			log.debug("Looking up mapping resource for {}", className);
-			
-			String hbmResourceName = null;
-			String hbmConfigFile = null;
-			for (String candidate : hbmConfigFiles) {
-				hbmResourceName = Util.getMappingResource(candidate, className);
-				if (hbmResourceName != null) {
-					log.debug("Found mapping resource for {} in config file {}", className, candidate);
-					
-					hbmConfigFile = candidate;
-					break;
-				}
-			}
-			
+			String hbmResourceName = mappingResourceIndex.getMappingResource(className);
 			if (hbmResourceName == null) {
 				//This is most likely a filter to be added to a module resource
 				//TODO keep track of skipped module resources so we can actually catch bad filter registrations 
 				continue;
 			}
 			
+			String hbmConfigFile = mappingResourceIndex.getCfgFile(className);
+			log.debug("Found mapping resource for {} in config file {}", className, hbmConfigFile);
+			
 			String newMappingFile = createTransformedMappingFiles(hbmResourceName, timestamp, entry.getValue());
 			cfgAndOldAndTransformedMappingFiles.computeIfAbsent(hbmConfigFile, k -> new HashMap<>()).put(hbmResourceName,
 			    newMappingFile);
@@ -167,8 +157,9 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 		
 		beanDefinition.setBeanClassName(DataFilterSessionFactoryBean.class.getName());
 		
-		log.info("Successfully reconfigured the sessionFactory bean's configLocations to: "
-		        + configLocationsList.stream().map(TypedStringValue::getValue).collect(Collectors.toList()));
+		log.info("Successfully reconfigured the sessionFactory bean's configLocations in {}ms to: {}",
+		    System.currentTimeMillis() - start,
+		    configLocationsList.stream().map(TypedStringValue::getValue).collect(Collectors.toList()));
 	}
 	
 	/**
@@ -183,33 +174,37 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 	private static String createTransformedHibernateCfgFile(Map<String, String> oldAndTransformedMappingFiles,
 	        String timestamp, String cfgFile) {
 		
-		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(cfgFile);
-		ByteArrayOutputStream outFinal = null;
-		
-		for (Map.Entry<String, String> entry : oldAndTransformedMappingFiles.entrySet()) {
-			if (outFinal != null) {
-				in = new ByteArrayInputStream(outFinal.toByteArray());
+		try {
+			final byte[] cfgContent;
+			try (InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(cfgFile)) {
+				cfgContent = IOUtils.toByteArray(in);
 			}
 			
-			ByteArrayOutputStream outTemp = new ByteArrayOutputStream();
-			Util.updateResourceLocation(in, entry.getKey(), entry.getValue(), outTemp);
-			outFinal = outTemp;
-		}
-		
-		File newCfgFile = FileUtils.getFile(FileUtils.getTempDirectory(), MODULE_ID, timestamp, MODULE_ID + "-" + cfgFile);
-		
-		try {
+			Map<String, String> sortedMappingFiles = new TreeMap<>(oldAndTransformedMappingFiles);
+			List<Object> keyParts = new ArrayList<>();
+			keyParts.add(cfgFile);
+			keyParts.add(cfgContent);
+			sortedMappingFiles.forEach((oldFile, newFile) -> {
+				keyParts.add(oldFile);
+				keyParts.add(newFile);
+			});
+			
+			File transformedResourcesRepo = FileUtils.getFile(FileUtils.getTempDirectory(), MODULE_ID, timestamp);
+			File newCfgFile = MappingFileCache.get(keyParts, MODULE_ID + "-" + cfgFile, transformedResourcesRepo, () -> {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Util.updateResourceLocations(new ByteArrayInputStream(cfgContent), sortedMappingFiles, out);
+				return out.toByteArray();
+			});
+			
 			if (log.isDebugEnabled()) {
 				log.debug("Hibernate cfg file " + cfgFile + " replaced with: " + newCfgFile.getAbsolutePath());
 			}
 			
-			FileUtils.writeByteArrayToFile(newCfgFile, outFinal.toByteArray());
+			return newCfgFile.getAbsolutePath();
 		}
 		catch (IOException e) {
 			throw new BeanCreationException("Failed to create transformed hibernate cfg file", e);
 		}
-		
-		return newCfgFile.getAbsolutePath();
 	}
 	
 	/**
@@ -21,4 +21,8 @@ public final class DataFilterConstants {
 	
 	public static final String PRIV_BY_PASS = "ByPass Data Filters";
 	
+	public static final String GP_FILTER_VARIANT = MODULE_ID + ".filterVariant";
+	
+	public static final String GP_LAZY_FILTER_ACTIVATION = MODULE_ID + ".lazyFilterActivation";
+	
 }
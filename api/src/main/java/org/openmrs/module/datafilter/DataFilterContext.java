@@ -10,6 +10,7 @@
 package org.openmrs.module.datafilter;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * An object used to pass information between the data filter framework and a
@@ -45,4 +46,19 @@ public class DataFilterContext {
 		filterAndParamValueMap.get(filterName).put(parameterName, value);
 	}
 	
+	/**
+	 * Sets the value of the specified filter parameter name to one that is only computed when it is
+	 * first needed, this should be used for values that are expensive to compute. When lazy filter
+	 * activation is enabled, the value is not computed until hibernate builds a query involving one
+	 * of the filter's target classes.
+	 *
+	 * @param parameterName the name of the filter parameter to set
+	 * @param valueSupplier the supplier to call to compute the value
+	 * @see Util#isLazyFilterActivationEnabled()
+	 */
+	public void setDeferredParameter(String parameterName, Supplier<?> valueSupplier) {
+		setParameter(parameterName, valueSupplier instanceof DeferredParameterValue ? valueSupplier
+		        : new DeferredParameterValue(valueSupplier));
+	}
+	
 }
@@ -0,0 +1,98 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.datafilter.impl.ImplConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@link GlobalPropertyListener} that discards the {@link GlobalPropertyCache} snapshot whenever a
+ * global property used to configure the module is changed or deleted, the cached filter activation
+ * plans are also discarded if the global property affects which filters get enabled. They are
+ * discarded immediately so that the change is visible in the current transaction and again after
+ * the transaction completes, this ensures a rolled back change or one loaded by another thread
+ * before it is committed is never retained.
+ */
+public class DataFilterGlobalPropertyListener implements GlobalPropertyListener {
+	
+	private static final Logger log = LoggerFactory.getLogger(DataFilterGlobalPropertyListener.class);
+	
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GlobalPropertyCache.isCached(propertyName);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		onChange(newValue.getProperty());
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		onChange(propertyName);
+	}
+	
+	private void onChange(String propertyName) {
+		if (log.isDebugEnabled()) {
+			log.debug("Global property " + propertyName + " changed, clearing cached global properties");
+		}
+		
+		final boolean clearActivationPlans = affectsFilterActivation(propertyName);
+		clear(clearActivationPlans);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					clear(clearActivationPlans);
+				}
+				
+			});
+		}
+	}
+	
+	/**
+	 * Checks if the global property with the specified name is one that the filter activation plans
+	 * are computed from i.e. one that disables a filter, selects the filter variants or changes how and
+	 * when the filters are enabled, the full text filter plans are discarded along with them.
+	 *
+	 * @param propertyName the global property name to check
+	 * @return true if the activation plans depend on the global property otherwise false
+	 */
+	static boolean affectsFilterActivation(String propertyName) {
+		return propertyName.endsWith(DataFilterConstants.DISABLED)
+		        || DataFilterConstants.GP_FILTER_VARIANT.equals(propertyName)
+		        || DataFilterConstants.GP_LAZY_FILTER_ACTIVATION.equals(propertyName)
+		        || ImplConstants.GP_RUN_IN_STRICT_MODE.equals(propertyName)
+		        || ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED.equals(propertyName);
+	}
+	
+	private static void clear(boolean clearActivationPlans) {
+		GlobalPropertyCache.clear();
+		if (clearActivationPlans) {
+			DataFilterSessionContext.clearActivationPlans();
+		}
+	}
+	
+}
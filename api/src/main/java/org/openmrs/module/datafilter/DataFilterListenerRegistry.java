@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.registration.FilterRegistration;
+import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps the names of the registered filters to the {@link DataFilterListener} that supports each of
+ * them, the index is built once after the application context is refreshed so that enabling filters
+ * doesn't require looking up the listeners from the application context and calling
+ * {@link DataFilterListener#supports(String)} on each of them every time. A filter is expected to
+ * have at most one listener, if multiple listeners support the same filter an error is logged and
+ * the first one is used, failing would break the refresh of the application context.
+ */
+@Component(MODULE_ID + "DataFilterListenerRegistry")
+public class DataFilterListenerRegistry implements ApplicationListener<ContextRefreshedEvent> {
+	
+	private static final Logger log = LoggerFactory.getLogger(DataFilterListenerRegistry.class);
+	
+	private static volatile Map<String, DataFilterListener> filterListenerMap;
+	
+	/**
+	 * @see ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		filterListenerMap = createIndex(Context.getRegisteredComponents(DataFilterListener.class));
+	}
+	
+	/**
+	 * Gets the listener that supports the filter with the specified name
+	 *
+	 * @param filterName the filter name to match, for a variant this is the name of the filter it is a
+	 *            variant of
+	 * @return the {@link DataFilterListener} or null if the filter has no listener
+	 */
+	public static DataFilterListener getListener(String filterName) {
+		Map<String, DataFilterListener> current = filterListenerMap;
+		if (current == null) {
+			//The context has not yet been refreshed
+			current = createIndex(Context.getRegisteredComponents(DataFilterListener.class));
+			filterListenerMap = current;
+		}
+		
+		return current.get(filterName);
+	}
+	
+	/**
+	 * Discards the index so that it gets rebuilt the next time a listener is looked up
+	 */
+	public static void clear() {
+		filterListenerMap = null;
+	}
+	
+	/**
+	 * Creates the index of the listeners supporting each of the registered hibernate and full text
+	 * filters
+	 *
+	 * @param listeners the listeners to index
+	 * @return a map of filter names to listeners
+	 */
+	protected static Map<String, DataFilterListener> createIndex(Collection<DataFilterListener> listeners) {
+		log.debug("Indexing data filter listeners");
+		
+		Map<String, FilterRegistration<?>> filterRegistrationMap = new LinkedHashMap<>();
+		for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+			//Listeners are only aware of the base filter names and not the variants
+			filterRegistrationMap.putIfAbsent(registration.getBaseName(), registration);
+		}
+		
+		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			filterRegistrationMap.put(registration.getName(), registration);
+		}
+		
+		Map<String, DataFilterListener> index = new HashMap<>(filterRegistrationMap.size());
+		for (Map.Entry<String, FilterRegistration<?>> entry : filterRegistrationMap.entrySet()) {
+			final String filterName = entry.getKey();
+			for (DataFilterListener listener : listeners) {
+				if (!listener.supports(filterName)) {
+					continue;
+				}
+				
+				DataFilterListener existing = index.putIfAbsent(filterName, listener);
+				if (existing != null) {
+					log.error("Found multiple listeners supporting the filter named {}: {} and {}, using the former",
+					    filterName, existing.getClass().getName(), listener.getClass().getName());
+				}
+			}
+			
+			if (!index.containsKey(filterName) && CollectionUtils.isNotEmpty(entry.getValue().getParameters())) {
+				log.warn("No listener found for the filter named {} which has parameters", filterName);
+			}
+		}
+		
+		return Collections.unmodifiableMap(index);
+	}
+	
+}
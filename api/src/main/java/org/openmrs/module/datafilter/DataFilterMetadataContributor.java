@@ -0,0 +1,158 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Entity;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.boot.spi.InFlightMetadataCollector;
+import org.hibernate.boot.spi.MetadataContributor;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.type.Type;
+import org.jboss.jandex.IndexView;
+import org.openmrs.api.APIException;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the filters for the persistent classes mapped with JPA annotations with hibernate while
+ * the session factory metadata is being built, it is discovered by hibernate via the java service
+ * loader. The filter definitions are added right away while the filters are added to the entity and
+ * collection bindings in a second pass because the collection elements are only bound in the second
+ * passes. Filters for classes mapped with hbm files are added to their mapping files by the
+ * {@link DataFilterBeanFactoryPostProcessor}.
+ */
+public class DataFilterMetadataContributor implements MetadataContributor {
+	
+	private static final Logger log = LoggerFactory.getLogger(DataFilterMetadataContributor.class);
+	
+	private static volatile boolean contributed;
+	
+	/**
+	 * @see MetadataContributor#contribute(InFlightMetadataCollector, IndexView)
+	 */
+	@Override
+	public void contribute(InFlightMetadataCollector metadataCollector, IndexView jandexIndex) {
+		log.info("Registering filters for classes mapped with annotations");
+		
+		final List<HibernateFilterRegistration> registrations = new ArrayList<>();
+		for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+			boolean hasEntityTarget = registration.getTargetClasses().stream()
+			        .anyMatch(clazz -> clazz.isAnnotationPresent(Entity.class));
+			if (!hasEntityTarget) {
+				continue;
+			}
+			
+			if (registration.getProperty() == null) {
+				metadataCollector.addFilterDefinition(createFilterDefinition(registration, metadataCollector));
+			} else if (registration.getTargetClasses().size() > 1) {
+				throw new APIException("Only one target class can be defined for a filter added to a property");
+			}
+			
+			registrations.add(registration);
+		}
+		
+		metadataCollector.addSecondPass(persistentClasses -> {
+			for (HibernateFilterRegistration registration : registrations) {
+				addFilter(registration, metadataCollector);
+			}
+		});
+		
+		contributed = true;
+	}
+	
+	/**
+	 * Checks if the filters have been contributed to the metadata of a session factory
+	 *
+	 * @return true if the filters were contributed otherwise false
+	 */
+	static boolean isContributed() {
+		return contributed;
+	}
+	
+	private FilterDefinition createFilterDefinition(HibernateFilterRegistration registration,
+	        InFlightMetadataCollector metadataCollector) {
+		
+		Map<String, Type> paramNameTypeMap = new HashMap<>();
+		if (CollectionUtils.isNotEmpty(registration.getParameters())) {
+			for (HibernateFilterParameter parameter : registration.getParameters()) {
+				Type type = metadataCollector.getTypeResolver().heuristicType(parameter.getType());
+				if (type == null) {
+					throw new APIException("Unknown type " + parameter.getType() + " for parameter " + parameter.getName()
+					        + " of filter " + registration.getName());
+				}
+				
+				paramNameTypeMap.put(parameter.getName(), type);
+			}
+		}
+		
+		return new FilterDefinition(registration.getName(), registration.getDefaultCondition(), paramNameTypeMap);
+	}
+	
+	private void addFilter(HibernateFilterRegistration registration, InFlightMetadataCollector metadataCollector) {
+		String condition = registration.getCondition();
+		if (StringUtils.isBlank(condition)) {
+			FilterDefinition filterDefinition = metadataCollector.getFilterDefinition(registration.getName());
+			condition = filterDefinition != null ? filterDefinition.getDefaultFilterCondition() : null;
+			if (StringUtils.isBlank(condition)) {
+				throw new APIException("No condition found for filter " + registration.getName());
+			}
+		}
+		
+		final Map<String, String> aliasTableMap = Collections.emptyMap();
+		final Map<String, String> aliasEntityMap = Collections.emptyMap();
+		for (Class<?> clazz : registration.getTargetClasses()) {
+			if (!clazz.isAnnotationPresent(Entity.class)) {
+				continue;
+			}
+			
+			if (registration.getProperty() == null) {
+				PersistentClass entityBinding = metadataCollector.getEntityBinding(clazz.getName());
+				if (entityBinding == null) {
+					log.warn("Skipping filter {} for unmapped class {}", registration.getName(), clazz.getName());
+					continue;
+				}
+				
+				entityBinding.addFilter(registration.getName(), condition, true, aliasTableMap, aliasEntityMap);
+			} else {
+				String role = clazz.getName() + "." + registration.getProperty();
+				Collection collectionBinding = metadataCollector.getCollectionBinding(role);
+				if (collectionBinding == null) {
+					throw new APIException("No collection mapping found for " + role);
+				}
+				
+				//Same as for @Filter annotations, the filter applies to the target table if there is a join table
+				if (collectionBinding.getElement() instanceof OneToMany) {
+					collectionBinding.addFilter(registration.getName(), condition, true, aliasTableMap, aliasEntityMap);
+				} else {
+					collectionBinding.addManyToManyFilter(registration.getName(), condition, true, aliasTableMap,
+					    aliasEntityMap);
+				}
+			}
+			
+			if (log.isDebugEnabled()) {
+				log.debug("Added filter " + registration.getName() + " to " + clazz.getName());
+			}
+		}
+	}
+	
+}
@@ -10,11 +10,13 @@
 package org.openmrs.module.datafilter;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.hibernate.Filter;
@@ -49,6 +51,21 @@ public class DataFilterSessionContext extends SpringSessionContext {
 	
 	private static final ThreadLocal<Session> tempSessionHolder = new ThreadLocal<>();
 	
+	private static final String ANONYMOUS_PLAN_KEY = "anonymous";
+	
+	/**
+	 * Caches the filter activation plan per user, the keys are the user ids and the plan for an
+	 * unauthenticated user is stored with the key {@link #ANONYMOUS_PLAN_KEY}
+	 */
+	private static final ExpiringCache<String, FilterActivationPlan> activationPlanCache = new ExpiringCache<>(
+	        TimeUnit.MINUTES.toMillis(10), 10000);
+	
+	/**
+	 * Incremented whenever cached activation plans are discarded, the filters set on a session are
+	 * only up to date if they were set from the current version
+	 */
+	private static final AtomicLong planVersion = new AtomicLong();
+	
 	public DataFilterSessionContext(SessionFactoryImplementor sessionFactory) {
 		super(sessionFactory);
 	}
@@ -68,36 +85,87 @@ public class DataFilterSessionContext extends SpringSessionContext {
 		
 		Session session = currentSessionInternal();
 		
-		//This method gets called many times and can slow down the system, in a web environment, every http request is
-		//processed in a separate thread, so we use make use of this session flag to ensure it gets invoked
-		//exactly once per user
-		Map<String, Object> sessionProperties = session.getProperties();
-		try {
-			if (Boolean.parseBoolean((String) sessionProperties.get(HAS_BEEN_FILTERED_PROPERTY))) {
-				log.trace("Skipping filter logic because filters are already set on the current session");
-				return session;
-			}
-		}
-		catch (ClassCastException ignored) {
-			// we get here if HAS_BEEN_FILTERED_PROPERTY is not a String
+		//This method gets called many times and can slow down the system, so we store on the session a stamp of the
+		//user and the plan version the filters were set from, they only get set again when either of them changes
+		final String planKey = getActivationPlanKey();
+		final String stamp = planKey + "@" + planVersion.get();
+		if (stamp.equals(session.getProperties().get(HAS_BEEN_FILTERED_PROPERTY))) {
+			log.trace("Skipping filter logic because filters are already set on the current session");
+			return session;
 		}
 		
 		if (Daemon.isDaemonThread()) {
 			log.trace("Skipping enabling of filters on daemon thread");
 			disableAllFilters(session);
-			session.setProperty(HAS_BEEN_FILTERED_PROPERTY, Boolean.TRUE.toString());
+			session.setProperty(HAS_BEEN_FILTERED_PROPERTY, stamp);
 			return session;
 		}
 		
+		//The plan is computed once per user and reused by all their sessions until something it depends on changes
+		FilterActivationPlan plan;
+		if (isBypassedViaProxyPrivilege(session)) {
+			//Don't cache a plan that depends on temporary proxy privileges
+			plan = createActivationPlan(session);
+		} else {
+			//Don't cache a plan if any of the listeners failed, the loader returns null so that it is never stored
+			final FilterActivationPlan[] uncacheablePlan = new FilterActivationPlan[1];
+			plan = activationPlanCache.get(planKey, key -> {
+				FilterActivationPlan newPlan = createActivationPlan(session);
+				if (!newPlan.cacheable) {
+					uncacheablePlan[0] = newPlan;
+					return null;
+				}
+				
+				return newPlan;
+			});
+			
+			if (plan == null) {
+				plan = uncacheablePlan[0];
+			}
+		}
+		
 		log.debug("Enabling filters on the current session");
 		
+		final boolean lazy = Util.isLazyFilterActivationEnabled();
+		//Resolving deferred parameter values can make a call to the DB
+		tempSessionHolder.set(session);
+		try {
+			for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+				if (plan.filterAndParamValueMap.containsKey(registration.getName())) {
+					enableFilter(registration, plan.filterAndParamValueMap.get(registration.getName()), session, lazy);
+				} else {
+					session.disableFilter(registration.getName());
+				}
+			}
+		}
+		finally {
+			tempSessionHolder.remove();
+		}
+		
+		//The stamp was taken before creating the plan so that a change made meanwhile causes the filters to be set again
+		session.setProperty(HAS_BEEN_FILTERED_PROPERTY, stamp);
+		return session;
+	}
+	
+	/**
+	 * Determines the filters to enable for the authenticated user and the values of their parameters
+	 * by calling the listeners, the result is cached and shared by all the sessions of the user.
+	 *
+	 * @param session the current session
+	 * @return the activation plan
+	 */
+	private FilterActivationPlan createActivationPlan(Session session) {
+		log.debug("Creating the filter activation plan for the authenticated user");
+		
 		// When AccessUtil.isFilterDisabled is called, it triggers a call to SessionFactory.getCurrentSession()
-		// which gets us back here and we don't want that to happen, see beginning of this method.
+		// which gets us back here and we don't want that to happen, see beginning of currentSession().
 		tempSessionHolder.set(session);
+		boolean cacheable = true;
 		Set<String> enabledFilters = new HashSet<>();
 		try {
-			for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
-				if (!Util.skipFilter(registration.getName())) {
+			//Only one registration is active per filter, the default one or the variant selected via a global property
+			for (HibernateFilterRegistration registration : Util.getActiveHibernateFilterRegistrations()) {
+				if (!Util.skipFilter(registration.getBaseName())) {
 					enabledFilters.add(registration.getName());
 				}
 			}
@@ -107,53 +175,111 @@ public class DataFilterSessionContext extends SpringSessionContext {
 		}
 		
 		Map<String, Map<String, Object>> filterParamsMap = new HashMap<>();
+		Map<String, Map<String, Object>> enabledFilterAndParamValueMap = new HashMap<>();
 		
-		filterLoop: for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+		for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
 			if (enabledFilters.contains(registration.getName())) {
+				//Listeners are only aware of the base filter names and not the variants
+				final String filterName = registration.getBaseName();
 				if (CollectionUtils.isNotEmpty(registration.getParameters())) {
-					filterParamsMap.put(registration.getName(), new HashMap<>());
+					filterParamsMap.put(filterName, new HashMap<>());
 				}
 				
-				DataFilterContext filterContext = new DataFilterContext(registration.getName(), filterParamsMap);
-				List<DataFilterListener> listeners = Context.getRegisteredComponents(DataFilterListener.class);
-				// Just in case any listener makes a call to the DB
-				tempSessionHolder.set(session);
-				try {
-					for (DataFilterListener listener : listeners) {
-						try {
-							if (listener.supports(registration.getName())) {
-								// In theory, expect one listener per filter, since we found one, no more will get called.
-								// TODO During filter registration, check for cases where a filter has multiple listeners
-								boolean enable = listener.onEnableFilter(filterContext);
-								if (!enable) {
-									enabledFilters.remove(registration.getName());
-									session.disableFilter(registration.getName());
-									//Don't call anymore filters since we've found one.
-									continue filterLoop;
-								}
-								
-								//Don't call anymore filters since we've found one.
-								break;
-							}
-						}
-						catch (Exception e) {
-							log.error("Exception caught while processing listener {} for registration {}",
-							    listener.getClass(), registration.getName(), e);
+				DataFilterListener listener = DataFilterListenerRegistry.getListener(filterName);
+				if (listener != null) {
+					DataFilterContext filterContext = new DataFilterContext(filterName, filterParamsMap);
+					// Just in case the listener makes a call to the DB
+					tempSessionHolder.set(session);
+					try {
+						if (!listener.onEnableFilter(filterContext)) {
+							continue;
 						}
 					}
-				}
-				finally {
-					tempSessionHolder.remove();
+					catch (Exception e) {
+						cacheable = false;
+						log.error("Exception caught while processing listener {} for registration {}", listener.getClass(),
+						    registration.getName(), e);
+					}
+					finally {
+						tempSessionHolder.remove();
+					}
 				}
 				
-				enableFilter(registration, filterParamsMap.get(registration.getName()), session);
-			} else {
-				session.disableFilter(registration.getName());
+				Map<String, Object> paramValueMap = filterParamsMap.get(filterName);
+				enabledFilterAndParamValueMap.put(registration.getName(),
+				    paramValueMap == null ? Collections.emptyMap() : Collections.unmodifiableMap(paramValueMap));
 			}
 		}
 		
-		session.setProperty(HAS_BEEN_FILTERED_PROPERTY, Boolean.TRUE.toString());
-		return session;
+		return new FilterActivationPlan(Collections.unmodifiableMap(enabledFilterAndParamValueMap), cacheable);
+	}
+	
+	/**
+	 * Checks if any of the active filters is skipped only because the authenticated user has been
+	 * granted a proxy privilege, proxy privileges are only granted temporarily on the current thread.
+	 *
+	 * @param session the current session
+	 * @return true if any filter is bypassed via a proxy privilege otherwise false
+	 */
+	private boolean isBypassedViaProxyPrivilege(Session session) {
+		tempSessionHolder.set(session);
+		try {
+			for (HibernateFilterRegistration registration : Util.getActiveHibernateFilterRegistrations()) {
+				if (Util.skipFilter(registration.getBaseName())
+				        && isBypassedViaProxyPrivilege(registration.getBaseName())) {
+					return true;
+				}
+			}
+		}
+		finally {
+			tempSessionHolder.remove();
+		}
+		
+		return false;
+	}
+	
+	static boolean isBypassedViaProxyPrivilege(String filterName) {
+		User user = Context.getAuthenticatedUser();
+		return user != null && !Util.isFilterDisabled(filterName)
+		        && !user.hasPrivilege(filterName + DataFilterConstants.BYPASS_PRIV_SUFFIX);
+	}
+	
+	static String getActivationPlanKey() {
+		User user = Context.getAuthenticatedUser();
+		return user != null ? user.getUserId().toString() : ANONYMOUS_PLAN_KEY;
+	}
+	
+	/**
+	 * Gets the current version of the activation plans, it changes every time the cached plans are
+	 * discarded, other caches derived from the plans can include it in their keys.
+	 *
+	 * @return the plan version
+	 */
+	static long getPlanVersion() {
+		return planVersion.get();
+	}
+	
+	/**
+	 * Discards the cached filter activation plans of all users, this method should be called whenever
+	 * anything that affects the filters to enable or their parameter values changes e.g. the access
+	 * granted to users, roles or the global properties used to configure the filters.
+	 */
+	public static void clearActivationPlans() {
+		log.debug("Clearing cached filter activation plans");
+		
+		activationPlanCache.clear();
+		planVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Discards the cached filter activation plan of the user with the specified user id
+	 *
+	 * @param userId the user id to match
+	 */
+	public static void clearActivationPlan(Integer userId) {
+		final String key = userId.toString();
+		activationPlanCache.removeIf(k -> k.equals(key));
+		planVersion.incrementAndGet();
 	}
 	
 	/**
@@ -166,7 +292,12 @@ public class DataFilterSessionContext extends SpringSessionContext {
 	}
 	
 	private void enableFilter(HibernateFilterRegistration registration, Map<String, Object> paramNameValueMap,
-	        Session session) {
+	        Session session, boolean lazy) {
+		
+		if (lazy && paramNameValueMap.values().stream().anyMatch(v -> v instanceof DeferredParameterValue)
+		        && DeferredFilter.enable(registration.getName(), paramNameValueMap, session)) {
+			return;
+		}
 		
 		Filter filter = session.getEnabledFilter(registration.getName());
 		if (filter == null) {
@@ -175,19 +306,23 @@ public class DataFilterSessionContext extends SpringSessionContext {
 		
 		if (registration.getParameters() != null) {
 			for (FilterParameter parameter : registration.getParameters()) {
-				Object value = paramNameValueMap.get(parameter.getName());
-				if (value != null && value.getClass().isArray()) {
-					filter.setParameterList(parameter.getName(), (Object[]) value);
-				} else if (value instanceof Collection) {
-					filter.setParameterList(parameter.getName(), (Collection) value);
-				} else {
-					filter.setParameter(parameter.getName(), value);
-				}
+				setParameter(filter, parameter.getName(),
+				    DeferredParameterValue.resolve(paramNameValueMap.get(parameter.getName())));
 			}
 		}
 		
 	}
 	
+	static void setParameter(Filter filter, String name, Object value) {
+		if (value != null && value.getClass().isArray()) {
+			filter.setParameterList(name, (Object[]) value);
+		} else if (value instanceof Collection) {
+			filter.setParameterList(name, (Collection) value);
+		} else {
+			filter.setParameter(name, value);
+		}
+	}
+	
 	private void disableAllFilters(Session session) {
 		for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
 			session.disableFilter(registration.getName());
@@ -212,14 +347,43 @@ public class DataFilterSessionContext extends SpringSessionContext {
 				        + " event received, clearing filters set on the current session");
 			}
 			
+			if (user != null && user.getUserId() != null) {
+				clearActivationPlan(user.getUserId());
+			}
+			
 			reset();
 		}
 		
 	}
 	
 	/**
-	 * Clears the flag set on the current thread so that filters can be re-enabled or disabled again on
-	 * the session.
+	 * The filters to enable for a user and the values of their parameters, it is immutable so that it
+	 * can be shared by all the sessions of the user and applied to a new session without calling the
+	 * listeners or making any database calls.
+	 */
+	private static class FilterActivationPlan {
+		
+		/**
+		 * Maps the names of the filter registrations to enable to their parameter values
+		 */
+		private final Map<String, Map<String, Object>> filterAndParamValueMap;
+		
+		/**
+		 * False if any of the listeners failed, such a plan is used once and never cached
+		 */
+		private final boolean cacheable;
+		
+		private FilterActivationPlan(Map<String, Map<String, Object>> filterAndParamValueMap, boolean cacheable) {
+			this.filterAndParamValueMap = filterAndParamValueMap;
+			this.cacheable = cacheable;
+		}
+		
+	}
+	
+	/**
+	 * Clears the stamp set on the current session so that filters are re-enabled or disabled again on
+	 * the session the next time it is fetched, note that this is not required after changing anything
+	 * the filters depend on since clearing the cached activation plans has the same effect.
 	 */
 	public static void reset() {
 		log.debug("Clearing filters set on the current session");
@@ -230,7 +394,7 @@ public class DataFilterSessionContext extends SpringSessionContext {
 			if (session != null) {
 				Map<String, Object> sessionProperties = session.getProperties();
 				if (sessionProperties.containsKey(HAS_BEEN_FILTERED_PROPERTY)) {
-					session.setProperty(HAS_BEEN_FILTERED_PROPERTY, Boolean.FALSE.toString());
+					session.setProperty(HAS_BEEN_FILTERED_PROPERTY, "");
 				}
 			}
 		}
@@ -53,12 +53,13 @@ public class DataFilterSessionFactoryBean extends HibernateSessionFactoryBean {
 			return;
 		}
 		
+		final long start = System.currentTimeMillis();
 		List<String> nonFilteredModuleResources = new ArrayList<>();
 		List<String> filteredModuleHbmFiles = new ArrayList<>();
 		File outputDir = new File(filteredResourcesLocation);
 		
 		for (String resource : mappingResources) {
-			String classname = Util.getMappedClassName(resource);
+			String classname = MappingResourceIndex.getMappedClassName(resource);
 			if (classname == null) {
 				//Some module hbm files are actually empty
 				nonFilteredModuleResources.add(resource);
@@ -94,6 +95,12 @@ public class DataFilterSessionFactoryBean extends HibernateSessionFactoryBean {
 		}
 		
 		super.setMappingLocations(resourcesLocations.toArray(new Resource[] {}));
+		
+		log.info("Registered filters to {} of {} module mapping resources in {}ms", filteredModuleHbmFiles.size(),
+		    mappingResources.length, System.currentTimeMillis() - start);
+		
+		//The module resources are looked up once per session factory, the cached class names are no longer needed
+		MappingResourceIndex.clearMappedClassNames();
 	}
 	
 }
@@ -0,0 +1,154 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.hibernate.Filter;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.FilterImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hibernate filter whose parameter values are only set when hibernate first reads them i.e. when
+ * it binds the parameters of a query that involves one of the filter's target classes, this way the
+ * deferred parameter values of filters for classes that are never queried in a session are never
+ * resolved. Hibernate validates all enabled filters before each query, the validation is skipped
+ * until the values are set.
+ *
+ * @see DeferredParameterValue
+ */
+class DeferredFilter extends FilterImpl {
+	
+	private static final Logger log = LoggerFactory.getLogger(DeferredFilter.class);
+	
+	private static final Field ENABLED_FILTERS_FIELD;
+	
+	static {
+		Field field = null;
+		try {
+			field = LoadQueryInfluencers.class.getDeclaredField("enabledFilters");
+			field.setAccessible(true);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			log.warn("Lazy filter activation is not supported by the hibernate version in use, filters will be enabled"
+			        + " eagerly", e);
+		}
+		
+		ENABLED_FILTERS_FIELD = field;
+	}
+	
+	private final Map<String, Object> paramNameValueMap;
+	
+	private boolean resolved;
+	
+	private boolean resolving;
+	
+	private DeferredFilter(FilterDefinition filterDefinition, Map<String, Object> paramNameValueMap) {
+		super(filterDefinition);
+		this.paramNameValueMap = paramNameValueMap;
+	}
+	
+	/**
+	 * Enables the filter with the specified name on the session with its parameter values set to be
+	 * resolved when first needed
+	 *
+	 * @param filterName the name of the filter to enable
+	 * @param paramNameValueMap the parameter values
+	 * @param session the session to enable the filter on
+	 * @return true if the filter was enabled otherwise false if the session doesn't support it in which
+	 *         case the caller must enable the filter the regular way, the filter is never left disabled
+	 */
+	static boolean enable(String filterName, Map<String, Object> paramNameValueMap, Session session) {
+		if (ENABLED_FILTERS_FIELD == null || !(session instanceof SharedSessionContractImplementor)) {
+			return false;
+		}
+		
+		SharedSessionContractImplementor sessionImpl = (SharedSessionContractImplementor) session;
+		try {
+			FilterDefinition filterDefinition = sessionImpl.getFactory().getFilterDefinition(filterName);
+			DeferredFilter filter = new DeferredFilter(filterDefinition, paramNameValueMap);
+			Map<String, Filter> enabledFilters = (Map<String, Filter>) ENABLED_FILTERS_FIELD
+			        .get(sessionImpl.getLoadQueryInfluencers());
+			enabledFilters.put(filterName, filter);
+			//Make sure hibernate actually sees the filter in case the field is no longer the one it reads
+			if (session.getEnabledFilter(filterName) != filter) {
+				log.warn("Failed to lazily enable filter {}, it will be enabled eagerly", filterName);
+				enabledFilters.remove(filterName, filter);
+				return false;
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			log.warn("Failed to lazily enable filter {}, it will be enabled eagerly", filterName, e);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @see FilterImpl#getParameter(String)
+	 */
+	@Override
+	public Object getParameter(String name) {
+		resolve();
+		return super.getParameter(name);
+	}
+	
+	/**
+	 * @see FilterImpl#getParameters()
+	 */
+	@Override
+	public Map<String, ?> getParameters() {
+		resolve();
+		return super.getParameters();
+	}
+	
+	/**
+	 * @see FilterImpl#validate()
+	 */
+	@Override
+	public void validate() throws HibernateException {
+		if (resolved) {
+			super.validate();
+		}
+	}
+	
+	private void resolve() {
+		//Resolving a value can run a query which reads the parameters of the enabled filters again
+		if (resolved || resolving) {
+			return;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Resolving parameter values of filter " + getName());
+		}
+		
+		resolving = true;
+		try {
+			for (String name : getFilterDefinition().getParameterNames()) {
+				DataFilterSessionContext.setParameter(this, name,
+				    DeferredParameterValue.resolve(paramNameValueMap.get(name)));
+			}
+			
+			resolved = true;
+		}
+		finally {
+			resolving = false;
+		}
+	}
+	
+}
@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.function.Supplier;
+
+/**
+ * A filter parameter value that is computed the first time it is needed and then reused, it is
+ * thread safe so that it can be shared by all the sessions of a user via their filter activation
+ * plan.
+ *
+ * @see DataFilterContext#setDeferredParameter(String, Supplier)
+ */
+public final class DeferredParameterValue implements Supplier<Object> {
+	
+	private final Supplier<?> supplier;
+	
+	private volatile boolean resolved;
+	
+	private Object value;
+	
+	public DeferredParameterValue(Supplier<?> supplier) {
+		this.supplier = supplier;
+	}
+	
+	/**
+	 * @see Supplier#get()
+	 */
+	@Override
+	public Object get() {
+		if (!resolved) {
+			synchronized (this) {
+				if (!resolved) {
+					value = supplier.get();
+					resolved = true;
+				}
+			}
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Gets the actual value of the specified filter parameter value, i.e. if it is a
+	 * {@link DeferredParameterValue} it is resolved otherwise it is returned as is.
+	 *
+	 * @param value the parameter value
+	 * @return the resolved value
+	 */
+	public static Object resolve(Object value) {
+		return value instanceof DeferredParameterValue ? ((DeferredParameterValue) value).get() : value;
+	}
+	
+}
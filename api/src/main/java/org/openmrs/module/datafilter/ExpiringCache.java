@@ -0,0 +1,139 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A simple thread safe in memory cache where each entry expires after a fixed time to live, the
+ * cache also holds at most the specified number of entries, when it is full the entries that expire
+ * the soonest are evicted first. Values loaded while the cache is being invalidated are returned to
+ * the caller but are never stored, this ensures a value computed from stale data can't outlive an
+ * invalidation.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ExpiringCache<K, V> {
+	
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	
+	private final AtomicLong generation = new AtomicLong();
+	
+	private final long timeToLiveMillis;
+	
+	private final int maxSize;
+	
+	/**
+	 * @param timeToLiveMillis the number of milliseconds after which an entry expires
+	 * @param maxSize the maximum number of entries to hold
+	 */
+	public ExpiringCache(long timeToLiveMillis, int maxSize) {
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Gets the cached value for the specified key, if there is none or it has expired the loader is
+	 * invoked to compute it and the result is cached, a null result is returned but never cached.
+	 *
+	 * @param key the key to look up
+	 * @param loader the function to call to compute a missing value
+	 * @return the value
+	 */
+	public V get(K key, Function<K, V> loader) {
+		final long now = System.currentTimeMillis();
+		Entry<V> entry = entries.get(key);
+		if (entry != null && entry.expiresAt > now) {
+			return entry.value;
+		}
+		
+		final long generationAtLoad = generation.get();
+		V value = loader.apply(key);
+		if (value != null && generationAtLoad == generation.get()) {
+			if (entries.size() >= maxSize) {
+				makeRoom(now);
+			}
+			
+			entries.put(key, new Entry<>(value, now + timeToLiveMillis));
+			//Discard what we just stored in case an invalidation happened while we were storing it
+			if (generationAtLoad != generation.get()) {
+				entries.remove(key);
+			}
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Removes all the entries with keys matching the specified predicate
+	 *
+	 * @param predicate the predicate to match
+	 */
+	public void removeIf(Predicate<K> predicate) {
+		generation.incrementAndGet();
+		entries.keySet().removeIf(predicate);
+	}
+	
+	/**
+	 * Removes all the entries from the cache
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+	
+	/**
+	 * Gets the number of cached entries including those that have expired but not yet evicted
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	private void makeRoom(long now) {
+		entries.values().removeIf(e -> e.expiresAt <= now);
+		while (entries.size() >= maxSize) {
+			K eldestKey = null;
+			long eldestExpiry = Long.MAX_VALUE;
+			for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+				if (e.getValue().expiresAt < eldestExpiry) {
+					eldestKey = e.getKey();
+					eldestExpiry = e.getValue().expiresAt;
+				}
+			}
+			
+			if (eldestKey == null) {
+				break;
+			}
+			
+			entries.remove(eldestKey);
+		}
+	}
+	
+	private static class Entry<V> {
+		
+		private final V value;
+		
+		private final long expiresAt;
+		
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+		
+	}
+	
+}
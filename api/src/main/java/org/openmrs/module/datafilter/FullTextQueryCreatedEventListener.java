@@ -11,16 +11,16 @@ package org.openmrs.module.datafilter;
 
 import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.hibernate.search.FullTextQuery;
 import org.hibernate.search.filter.FullTextFilter;
-import org.openmrs.api.context.Context;
 import org.openmrs.api.context.Daemon;
 import org.openmrs.api.db.FullTextQueryAndEntityClass;
 import org.openmrs.api.db.FullTextQueryCreatedEvent;
@@ -37,6 +37,15 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 	
 	private static final Logger log = LoggerFactory.getLogger(FullTextQueryCreatedEventListener.class);
 	
+	/**
+	 * Caches the full text filter plans, the keys are made of the activation plan key of the user, the
+	 * activation plan version and the entity class name
+	 */
+	private static final ExpiringCache<String, FullTextFilterPlan> planCache = new ExpiringCache<>(
+	        TimeUnit.MINUTES.toMillis(10), 10000);
+	
+	private static volatile Map<Class<?>, List<FullTextFilterRegistration>> classRegistrationsMap;
+	
 	/**
 	 * @see ApplicationListener#onApplicationEvent(ApplicationEvent)
 	 */
@@ -58,20 +67,10 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 			return;
 		}*/
 		
-		Set<String> enabledFilters = new HashSet();
-		Set<Class> filteredClasses = new HashSet();
-		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
-			filteredClasses.addAll(registration.getTargetClasses());
-			if (!Util.skipFilter(registration.getName())) {
-				enabledFilters.add(registration.getName());
-			}
-		}
-		
 		FullTextQueryAndEntityClass queryAndClass = (FullTextQueryAndEntityClass) event.getSource();
-		FullTextQuery query = queryAndClass.getQuery();
 		Class<?> entityClass = queryAndClass.getEntityClass();
-		
-		if (!filteredClasses.contains(entityClass)) {
+		List<FullTextFilterRegistration> registrations = getClassRegistrationsMap().get(entityClass);
+		if (registrations == null) {
 			if (log.isDebugEnabled()) {
 				log.debug("Skipping enabling of filters on the full text query for " + entityClass.getName());
 			}
@@ -83,41 +82,114 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 			log.debug("Enabling filters on the full text query for " + entityClass.getName());
 		}
 		
-		Map<String, Map<String, Object>> filterParamsMap = new HashMap();
+		//The plan is computed once per user and entity class, it is discarded along with the hibernate filter plans
+		final String planKey = DataFilterSessionContext.getActivationPlanKey() + "@"
+		        + DataFilterSessionContext.getPlanVersion() + ":" + entityClass.getName();
+		FullTextFilterPlan plan;
+		if (isBypassedViaProxyPrivilege(registrations)) {
+			//Don't cache a plan that depends on temporary proxy privileges
+			plan = createPlan(registrations, entityClass);
+		} else {
+			plan = planCache.get(planKey, key -> createPlan(registrations, entityClass));
+		}
+		
+		FullTextQuery query = queryAndClass.getQuery();
+		for (FullTextFilterRegistration registration : registrations) {
+			Map<String, Object> paramValueMap = plan.filterAndParamValueMap.get(registration.getName());
+			if (paramValueMap != null) {
+				enableFilter(registration, paramValueMap, query);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Determines the full text filters to enable for the authenticated user on queries for the
+	 * specified entity class and the values of their parameters by calling the listeners.
+	 *
+	 * @param registrations the full text filter registrations for the entity class
+	 * @param entityClass the entity class
+	 * @return the plan
+	 */
+	private FullTextFilterPlan createPlan(List<FullTextFilterRegistration> registrations, Class<?> entityClass) {
+		log.debug("Creating the full text filter plan for the authenticated user");
 		
-		filterLoop: for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
-			if (!enabledFilters.contains(registration.getName())) {
+		Map<String, Map<String, Object>> filterParamsMap = new HashMap<>();
+		Map<String, Map<String, Object>> enabledFilterAndParamValueMap = new HashMap<>();
+		for (FullTextFilterRegistration registration : registrations) {
+			if (Util.skipFilter(registration.getName())) {
 				continue;
 			}
 			
 			if (CollectionUtils.isNotEmpty(registration.getParameters())) {
-				filterParamsMap.put(registration.getName(), new HashMap());
+				filterParamsMap.put(registration.getName(), new HashMap<>());
 			}
 			
-			DataFilterContext filterContext = new FullTextDataFilterContext(registration.getName(), filterParamsMap,
-			        entityClass);
-			
-			List<DataFilterListener> listeners = Context.getRegisteredComponents(DataFilterListener.class);
+			DataFilterListener listener = DataFilterListenerRegistry.getListener(registration.getName());
+			if (listener != null) {
+				DataFilterContext filterContext = new FullTextDataFilterContext(registration.getName(), filterParamsMap,
+				        entityClass);
+				if (!listener.onEnableFilter(filterContext)) {
+					continue;
+				}
+			}
 			
-			for (DataFilterListener listener : listeners) {
-				if (listener.supports(registration.getName())) {
-					//In theory, expect one listener per filter, since we found one, no more will get called.
-					//TODO During filter registration, check for cases where a filter has multiple listeners
-					boolean enable = listener.onEnableFilter(filterContext);
-					if (!enable) {
-						enabledFilters.remove(registration.getName());
-						//Don't call anymore filters since we've found one.
-						continue filterLoop;
-					}
-					
-					//Don't call anymore filters since we've found one.
-					break;
+			Map<String, Object> paramValueMap = filterParamsMap.get(registration.getName());
+			enabledFilterAndParamValueMap.put(registration.getName(),
+			    paramValueMap == null ? Collections.emptyMap() : Collections.unmodifiableMap(paramValueMap));
+		}
+		
+		return new FullTextFilterPlan(Collections.unmodifiableMap(enabledFilterAndParamValueMap));
+	}
+	
+	/**
+	 * Checks if any of the full text filters in the specified registrations is skipped only because
+	 * the authenticated user has been granted a proxy privilege.
+	 *
+	 * @param registrations the full text filter registrations to check
+	 * @return true if any filter is bypassed via a proxy privilege otherwise false
+	 */
+	private static boolean isBypassedViaProxyPrivilege(List<FullTextFilterRegistration> registrations) {
+		for (FullTextFilterRegistration registration : registrations) {
+			if (Util.skipFilter(registration.getName())
+			        && DataFilterSessionContext.isBypassedViaProxyPrivilege(registration.getName())) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the full text filter registrations that apply to each entity class, the map is built once
+	 * since the registrations don't change after they are loaded.
+	 *
+	 * @return a map of entity classes to their full text filter registrations
+	 */
+	private static Map<Class<?>, List<FullTextFilterRegistration>> getClassRegistrationsMap() {
+		Map<Class<?>, List<FullTextFilterRegistration>> current = classRegistrationsMap;
+		if (current == null) {
+			Map<Class<?>, List<FullTextFilterRegistration>> classRegistrations = new HashMap<>();
+			for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+				for (Class<?> clazz : registration.getTargetClasses()) {
+					classRegistrations.computeIfAbsent(clazz, k -> new ArrayList<>()).add(registration);
 				}
 			}
 			
-			enableFilter(registration, filterParamsMap.get(registration.getName()), query);
+			current = Collections.unmodifiableMap(classRegistrations);
+			classRegistrationsMap = current;
 		}
 		
+		return current;
+	}
+	
+	/**
+	 * Discards the cached full text filter plans and the entity class index of the registrations, this
+	 * method should be called whenever the person ids the filter parameters are computed from change.
+	 */
+	public static void clearCache() {
+		planCache.clear();
+		classRegistrationsMap = null;
 	}
 	
 	private void enableFilter(FullTextFilterRegistration registration, Map<String, Object> paramNameValueMap,
@@ -126,10 +198,25 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 		FullTextFilter filter = query.enableFullTextFilter(registration.getName());
 		if (registration.getParameters() != null) {
 			for (FilterParameter parameter : registration.getParameters()) {
-				filter.setParameter(parameter.getName(), paramNameValueMap.get(parameter.getName()));
+				filter.setParameter(parameter.getName(),
+				    DeferredParameterValue.resolve(paramNameValueMap.get(parameter.getName())));
 			}
 		}
 		
 	}
 	
+	/**
+	 * The full text filters to enable for a user on queries for an entity class and the values of their
+	 * parameters.
+	 */
+	private static class FullTextFilterPlan {
+		
+		private final Map<String, Map<String, Object>> filterAndParamValueMap;
+		
+		private FullTextFilterPlan(Map<String, Map<String, Object>> filterAndParamValueMap) {
+			this.filterAndParamValueMap = filterAndParamValueMap;
+		}
+		
+	}
+	
 }
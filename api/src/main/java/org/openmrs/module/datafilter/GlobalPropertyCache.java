@@ -0,0 +1,159 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.AdministrationDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds an in memory snapshot of the values of all the global properties used to configure the
+ * module i.e. those with names ending with {@link DataFilterConstants#DISABLED} and those prefixed
+ * with the module id, this way the configuration can be looked up while enabling filters without
+ * making a database call for each filter. The snapshot is loaded with a single query and is
+ * discarded whenever one of the global properties is changed via the API, it is also periodically
+ * reloaded to pick up changes made by other means.
+ *
+ * @see DataFilterGlobalPropertyListener
+ */
+public final class GlobalPropertyCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(GlobalPropertyCache.class);
+	
+	private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	private static final String MODULE_PREFIX = DataFilterConstants.MODULE_ID + ".";
+	
+	private static final String QUERY = "SELECT property, property_value FROM global_property WHERE property LIKE '%"
+	        + DataFilterConstants.DISABLED + "' OR property LIKE '" + MODULE_PREFIX + "%'";
+	
+	private static final AtomicLong generation = new AtomicLong();
+	
+	private static volatile Snapshot snapshot;
+	
+	private GlobalPropertyCache() {
+	}
+	
+	/**
+	 * Gets the value of the global property with the specified name
+	 *
+	 * @param propertyName the global property name
+	 * @return the global property value or null if none exists
+	 */
+	public static String getValue(String propertyName) {
+		Snapshot current = snapshot;
+		if (current == null || current.expiresAt <= System.currentTimeMillis()) {
+			current = load();
+		}
+		
+		return current.values.get(propertyName);
+	}
+	
+	/**
+	 * Gets the value of the global property with the specified name, if the snapshot needs to be
+	 * loaded it is read using the specified connection, this is for callers that have no session bound
+	 * to their thread e.g. the hibernate search mass indexer threads.
+	 *
+	 * @param propertyName the global property name
+	 * @param connection the connection to use to load the snapshot
+	 * @return the global property value or null if none exists
+	 * @throws SQLException
+	 */
+	public static String getValue(String propertyName, Connection connection) throws SQLException {
+		Snapshot current = snapshot;
+		if (current == null || current.expiresAt <= System.currentTimeMillis()) {
+			final long generationAtLoad = generation.get();
+			Map<String, String> values = new HashMap<>();
+			try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(QUERY)) {
+				while (resultSet.next()) {
+					if (resultSet.getString(1) != null && resultSet.getString(2) != null) {
+						values.put(resultSet.getString(1), resultSet.getString(2));
+					}
+				}
+			}
+			
+			current = store(values, generationAtLoad);
+		}
+		
+		return current.values.get(propertyName);
+	}
+	
+	/**
+	 * Discards the snapshot so that it gets reloaded the next time a value is looked up
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		snapshot = null;
+	}
+	
+	/**
+	 * Checks if the value of the global property with the specified name is held in the snapshot
+	 *
+	 * @param propertyName the global property name to check
+	 * @return true if the global property is cached otherwise false
+	 */
+	public static boolean isCached(String propertyName) {
+		return propertyName != null && (propertyName.endsWith(DataFilterConstants.DISABLED)
+		        || propertyName.startsWith(MODULE_PREFIX));
+	}
+	
+	private static Snapshot load() {
+		log.debug("Loading data filter global properties");
+		
+		final long generationAtLoad = generation.get();
+		AdministrationDAO adminDAO = Context.getRegisteredComponent("adminDAO", AdministrationDAO.class);
+		List<List<Object>> rows = adminDAO.executeSQL(QUERY, true);
+		Map<String, String> values = new HashMap<>(rows.size());
+		for (List<Object> row : rows) {
+			if (row.size() > 1 && row.get(0) != null && row.get(1) != null) {
+				values.put(row.get(0).toString(), row.get(1).toString());
+			}
+		}
+		
+		return store(values, generationAtLoad);
+	}
+	
+	private static Snapshot store(Map<String, String> values, long generationAtLoad) {
+		Snapshot newSnapshot = new Snapshot(Collections.unmodifiableMap(values),
+		        System.currentTimeMillis() + REFRESH_INTERVAL_MILLIS);
+		//Don't store the snapshot if it was cleared while we were loading it since it could be stale
+		if (generationAtLoad == generation.get()) {
+			snapshot = newSnapshot;
+		}
+		
+		return newSnapshot;
+	}
+	
+	private static class Snapshot {
+		
+		private final Map<String, String> values;
+		
+		private final long expiresAt;
+		
+		private Snapshot(Map<String, String> values, long expiresAt) {
+			this.values = values;
+			this.expiresAt = expiresAt;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,184 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of primitive int values backed by an open addressing hash table with linear
+ * probing, it avoids boxing the values and the per entry overhead of a {@link java.util.HashSet}
+ * which makes it suitable for holding large numbers of ids. Once {@link #makeReadOnly()} is
+ * called, the set can no longer be modified and can be safely shared between threads.
+ */
+public class IntHashSet {
+	
+	private static final int FREE = 0;
+	
+	private static final float LOAD_FACTOR = 0.5f;
+	
+	private int[] table;
+	
+	private int size;
+	
+	private boolean containsFree;
+	
+	private boolean readOnly;
+	
+	public IntHashSet() {
+		this(16);
+	}
+	
+	/**
+	 * @param expectedSize the number of values the set is expected to hold
+	 */
+	public IntHashSet(int expectedSize) {
+		table = new int[tableSizeFor(expectedSize)];
+	}
+	
+	/**
+	 * Adds the specified value to the set
+	 *
+	 * @param value the value to add
+	 * @return true if the value was added otherwise false if it was already present
+	 */
+	public boolean add(int value) {
+		if (readOnly) {
+			throw new UnsupportedOperationException("The set is read only");
+		}
+		
+		if (value == FREE) {
+			if (containsFree) {
+				return false;
+			}
+			
+			containsFree = true;
+			size++;
+			return true;
+		}
+		
+		int index = indexOf(table, value);
+		if (table[index] == value) {
+			return false;
+		}
+		
+		table[index] = value;
+		size++;
+		if (size > table.length * LOAD_FACTOR) {
+			rehash(table.length << 1);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks if the specified value is in the set
+	 *
+	 * @param value the value to check
+	 * @return true if the value is present otherwise false
+	 */
+	public boolean contains(int value) {
+		if (value == FREE) {
+			return containsFree;
+		}
+		
+		return table[indexOf(table, value)] == value;
+	}
+	
+	/**
+	 * Gets the number of values in the set
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Checks if the set is empty
+	 *
+	 * @return true if the set is empty otherwise false
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Gets the values in the set sorted in ascending order
+	 *
+	 * @return an array of values
+	 */
+	public int[] toArray() {
+		int[] values = new int[size];
+		int i = 0;
+		if (containsFree) {
+			values[i++] = FREE;
+		}
+		
+		for (int value : table) {
+			if (value != FREE) {
+				values[i++] = value;
+			}
+		}
+		
+		Arrays.sort(values);
+		
+		return values;
+	}
+	
+	/**
+	 * Prevents any further modifications to the set
+	 *
+	 * @return this set
+	 */
+	public IntHashSet makeReadOnly() {
+		readOnly = true;
+		return this;
+	}
+	
+	private void rehash(int newCapacity) {
+		int[] newTable = new int[newCapacity];
+		for (int value : table) {
+			if (value != FREE) {
+				newTable[indexOf(newTable, value)] = value;
+			}
+		}
+		
+		table = newTable;
+	}
+	
+	/**
+	 * Gets the index of the slot containing the specified value or the free slot where it should be
+	 * inserted if it is not present
+	 */
+	private static int indexOf(int[] table, int value) {
+		final int mask = table.length - 1;
+		int index = mix(value) & mask;
+		while (table[index] != FREE && table[index] != value) {
+			index = (index + 1) & mask;
+		}
+		
+		return index;
+	}
+	
+	private static int mix(int value) {
+		final int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		
+		return capacity;
+	}
+	
+}
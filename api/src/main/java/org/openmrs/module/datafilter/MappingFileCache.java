@@ -0,0 +1,184 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the transformed hbm and hibernate cfg files in the application data directory so that they
+ * are only generated again at startup when their inputs change. Each file is stored in a directory
+ * named after a hash of the contents of the original file and the filter registrations applied to
+ * it, this way a cached file is never reused for different inputs. The files are written to a
+ * temporary file first and then moved in place, if the cache directory can't be used the files are
+ * written to the specified fallback directory instead. Cache entries that haven't been used for a
+ * while are deleted at startup.
+ */
+final class MappingFileCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(MappingFileCache.class);
+	
+	private static final String CACHE_DIR_NAME = MODULE_ID + File.separator + "mappings";
+	
+	/**
+	 * Should be incremented whenever the way the cached files are generated changes
+	 */
+	private static final String FORMAT_VERSION = "2";
+	
+	private static final long MAX_IDLE_MILLIS = TimeUnit.DAYS.toMillis(30);
+	
+	private static File cacheDirectory;
+	
+	private MappingFileCache() {
+	}
+	
+	/**
+	 * Gets the cached file for the specified inputs, if none exists it is created with the contents
+	 * returned by the specified supplier.
+	 *
+	 * @param keyParts the inputs the contents of the file are generated from
+	 * @param filename the name of the file
+	 * @param fallbackDir the directory to write the file to if the cache directory can't be used
+	 * @param contentSupplier generates the contents of the file
+	 * @return the file
+	 * @throws IOException
+	 */
+	static File get(List<?> keyParts, String filename, File fallbackDir, ContentSupplier contentSupplier)
+	        throws IOException {
+		
+		File cacheDir = getCacheDirectory();
+		if (cacheDir == null) {
+			File file = FileUtils.getFile(fallbackDir, filename);
+			FileUtils.writeByteArrayToFile(file, contentSupplier.get());
+			return file;
+		}
+		
+		File entryDir = new File(cacheDir, hash(keyParts));
+		File file = new File(entryDir, filename);
+		if (file.isFile()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Using cached mapping file: " + file.getAbsolutePath());
+			}
+			
+			entryDir.setLastModified(System.currentTimeMillis());
+			return file;
+		}
+		
+		byte[] content = contentSupplier.get();
+		FileUtils.forceMkdir(entryDir);
+		File tempFile = File.createTempFile(filename, ".tmp", cacheDir);
+		try {
+			FileUtils.writeByteArrayToFile(tempFile, content);
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath());
+			}
+		}
+		catch (FileAlreadyExistsException e) {
+			//Another process sharing the application data directory created it with the same contents
+		}
+		finally {
+			FileUtils.deleteQuietly(tempFile);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Cached mapping file: " + file.getAbsolutePath());
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Deletes the cache entries that haven't been used for a while
+	 */
+	static void evictStaleEntries() {
+		File cacheDir = getCacheDirectory();
+		File[] entries = cacheDir != null ? cacheDir.listFiles() : null;
+		if (entries == null) {
+			return;
+		}
+		
+		final long oldestAllowed = System.currentTimeMillis() - MAX_IDLE_MILLIS;
+		for (File entry : entries) {
+			if (entry.lastModified() < oldestAllowed) {
+				if (log.isDebugEnabled()) {
+					log.debug("Deleting stale cached mapping files: " + entry.getAbsolutePath());
+				}
+				
+				FileUtils.deleteQuietly(entry);
+			}
+		}
+	}
+	
+	private static synchronized File getCacheDirectory() {
+		if (cacheDirectory == null) {
+			try {
+				cacheDirectory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(CACHE_DIR_NAME);
+			}
+			catch (RuntimeException e) {
+				log.warn("Failed to create the mapping file cache directory, transformed mapping files won't be cached",
+				    e);
+				return null;
+			}
+		}
+		
+		return cacheDirectory;
+	}
+	
+	private static String hash(List<?> keyParts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+			for (Object part : keyParts) {
+				//Separate the parts so that different splits of the same bytes don't produce the same hash
+				digest.update((byte) 0);
+				if (part instanceof byte[]) {
+					digest.update((byte[]) part);
+				} else if (part != null) {
+					digest.update(part.toString().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			
+			return String.format("%064x", new BigInteger(1, digest.digest()));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Generates the contents of a file to cache
+	 */
+	interface ContentSupplier {
+		
+		byte[] get() throws IOException;
+		
+	}
+	
+}
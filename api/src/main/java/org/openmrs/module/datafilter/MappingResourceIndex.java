@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the classes mapped in hibernate cfg files, it is built by parsing each cfg file and each
+ * hbm file they reference exactly once, and maps each class name to its hbm resource and the cfg file
+ * that references the resource. The mapped class names are cached by hbm resource name and shared
+ * with the {@link DataFilterSessionFactoryBean} so that a hbm file is never parsed more than once to
+ * look up its mapped class while the session factory is being set up.
+ */
+final class MappingResourceIndex {
+	
+	private static final Logger log = LoggerFactory.getLogger(MappingResourceIndex.class);
+	
+	//ConcurrentHashMap doesn't allow null values, resources with no mapped class are stored as an empty string
+	private static final Map<String, String> resourceClassNameMap = new ConcurrentHashMap<>();
+	
+	private final Map<String, String> classNameResourceMap = new HashMap<>();
+	
+	private final Map<String, String> classNameCfgFileMap = new HashMap<>();
+	
+	private MappingResourceIndex() {
+	}
+	
+	/**
+	 * Builds the index for the specified hibernate cfg files, if a class is mapped in multiple cfg files
+	 * the first cfg file wins.
+	 *
+	 * @param cfgFiles the hibernate cfg files to index
+	 * @return the index
+	 */
+	static MappingResourceIndex build(List<String> cfgFiles) {
+		final long start = System.currentTimeMillis();
+		MappingResourceIndex index = new MappingResourceIndex();
+		int resourceCount = 0;
+		for (String cfgFile : cfgFiles) {
+			List<String> resources = Util.getMappingResources(cfgFile);
+			resourceCount += resources.size();
+			for (String resource : resources) {
+				String className = getMappedClassName(resource);
+				if (className != null && !index.classNameResourceMap.containsKey(className)) {
+					index.classNameResourceMap.put(className, resource);
+					index.classNameCfgFileMap.put(className, cfgFile);
+				}
+			}
+		}
+		
+		log.info("Indexed {} mapping resources from {} hibernate cfg file(s) in {}ms", resourceCount, cfgFiles.size(),
+		    System.currentTimeMillis() - start);
+		
+		return index;
+	}
+	
+	/**
+	 * Gets the fully qualified java class name of the mapped class from the specified hbm file, the hbm
+	 * file is only parsed the first time it is looked up.
+	 *
+	 * @param hbmResource the hbm resource name
+	 * @return the name of the mapped class or null if none is found
+	 * @see Util#getMappedClassName(String)
+	 */
+	static String getMappedClassName(String hbmResource) {
+		String className = resourceClassNameMap.get(hbmResource);
+		if (className == null) {
+			className = Util.getMappedClassName(hbmResource);
+			resourceClassNameMap.put(hbmResource, className != null ? className : "");
+		}
+		
+		return className == null || className.isEmpty() ? null : className;
+	}
+	
+	/**
+	 * Clears the cached mapped class names, should be called before the session factory is set up again
+	 */
+	static void clearMappedClassNames() {
+		resourceClassNameMap.clear();
+	}
+	
+	/**
+	 * Gets the hbm resource name for the class with the specified name
+	 *
+	 * @param className the fully qualified java class name
+	 * @return the resource name or null if the class isn't mapped in any of the indexed cfg files
+	 */
+	String getMappingResource(String className) {
+		return classNameResourceMap.get(className);
+	}
+	
+	/**
+	 * Gets the hibernate cfg file that references the hbm resource of the class with the specified name
+	 *
+	 * @param className the fully qualified java class name
+	 * @return the cfg file or null if the class isn't mapped in any of the indexed cfg files
+	 */
+	String getCfgFile(String className) {
+		return classNameCfgFileMap.get(className);
+	}
+	
+}
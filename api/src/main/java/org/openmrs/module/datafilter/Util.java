@@ -15,16 +15,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.persistence.Entity;
 import javax.xml.namespace.QName;
@@ -33,38 +32,23 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.annotations.FilterDefs;
-import org.hibernate.annotations.Filters;
-import org.hibernate.annotations.ParamDef;
 import org.hibernate.cfg.Environment;
 import org.hibernate.internal.util.xml.DTDEntityResolver;
-import org.hibernate.search.annotations.FullTextFilterDefs;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.module.datafilter.annotations.AggregateAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterDefAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterDefsAnnotation;
-import org.openmrs.module.datafilter.annotations.FiltersAnnotation;
-import org.openmrs.module.datafilter.annotations.FullTextFilterDefAnnotation;
-import org.openmrs.module.datafilter.annotations.FullTextFilterDefsAnnotation;
-import org.openmrs.module.datafilter.annotations.ParamDefAnnotation;
+import org.openmrs.module.datafilter.impl.DataFilterSearchMappingFactory;
 import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
 import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
@@ -75,6 +59,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
@@ -83,8 +68,6 @@ import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 
-import freemarker.template.Configuration;
-import freemarker.template.Template;
 
 public class Util {
 	
@@ -94,10 +77,6 @@ public class Util {
 	
 	private static final String FILTER_PATH_SUFFIX = "/*.json";
 	
-	private static final String ADD_ENTITY_FILTER_XSLT_TEMPLATE = "add-entity-filter-xslt-template.xml";
-	
-	private static final String UPDATE_MAPPING_LOC_XSLT_TEMPLATE = "update-mapping-loc-xslt-template.xml";
-	
 	private static List<HibernateFilterRegistration> hibernateFilterRegistrations;
 	
 	private static List<FullTextFilterRegistration> fullTextFilterRegistrations;
@@ -108,10 +87,6 @@ public class Util {
 	
 	private static DocumentBuilder documentBuilder;
 	
-	private static Template addEntityFilterXsltTemplate;
-	
-	private static Template updateMappingLocXsltTemplate;
-	
 	static {
 		try {
 			documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -120,17 +95,6 @@ public class Util {
 		catch (ParserConfigurationException e) {
 			throw new RuntimeException(e);
 		}
-		
-		Configuration cfg = new Configuration(Configuration.VERSION_2_3_29);
-		cfg.setDefaultEncoding(StandardCharsets.UTF_8.name());
-		cfg.setClassLoaderForTemplateLoading(OpenmrsClassLoader.getInstance(), "");
-		try {
-			addEntityFilterXsltTemplate = cfg.getTemplate(ADD_ENTITY_FILTER_XSLT_TEMPLATE);
-			updateMappingLocXsltTemplate = cfg.getTemplate(UPDATE_MAPPING_LOC_XSLT_TEMPLATE);
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
-		}
 	}
 	
 	/**
@@ -151,224 +115,93 @@ public class Util {
 	 * @return true if the filter is disabled otherwise false
 	 */
 	public static boolean isFilterDisabled(String filterName) {
-		AdministrationDAO adminDAO = Context.getRegisteredComponent("adminDAO", AdministrationDAO.class);
-		List<List<Object>> rows = adminDAO.executeSQL("SELECT property_value FROM global_property WHERE property = '"
-		        + filterName + DataFilterConstants.DISABLED + "'",
-		    true);
-		if (rows.isEmpty() || rows.get(0).isEmpty() || rows.get(0).get(0) == null) {
+		String value = GlobalPropertyCache.getValue(filterName + DataFilterConstants.DISABLED);
+		if (value == null) {
 			return false;
 		}
 		
-		return "true".equalsIgnoreCase(rows.get(0).get(0).toString().trim());
+		return "true".equalsIgnoreCase(value.trim());
 	}
 	
-	protected static List<HibernateFilterRegistration> getHibernateFilterRegistrations() {
-		if (hibernateFilterRegistrations == null) {
-			loadFilterRegistrations(true);
+	/**
+	 * Checks if the resolution of deferred filter parameter values should be postponed until hibernate
+	 * first needs them for a query involving one of the filter's target classes, this is controlled via
+	 * the {@link DataFilterConstants#GP_LAZY_FILTER_ACTIVATION} global property.
+	 *
+	 * @return true if lazy filter activation is enabled otherwise false
+	 * @see DataFilterContext#setDeferredParameter(String, java.util.function.Supplier)
+	 */
+	public static boolean isLazyFilterActivationEnabled() {
+		String value = GlobalPropertyCache.getValue(DataFilterConstants.GP_LAZY_FILTER_ACTIVATION);
+		if (value == null) {
+			return false;
 		}
 		
-		return hibernateFilterRegistrations;
+		return "true".equalsIgnoreCase(value.trim());
 	}
 	
-	protected static List<FullTextFilterRegistration> getFullTextFilterRegistrations() {
-		if (fullTextFilterRegistrations == null) {
-			loadFilterRegistrations(false);
+	protected static List<HibernateFilterRegistration> getHibernateFilterRegistrations() {
+		if (hibernateFilterRegistrations == null) {
+			loadFilterRegistrations(true);
 		}
 		
-		return fullTextFilterRegistrations;
+		return hibernateFilterRegistrations;
 	}
 	
 	/**
-	 * Adds the defined filter annotations to persistent classes mapped with JPA annotations that need
-	 * to be filtered.
+	 * Gets the hibernate filter registrations that should currently be applied, a filter can have
+	 * alternative definitions registered as variants of it, if a variant matching any of the comma
+	 * separated names in the {@link DataFilterConstants#GP_FILTER_VARIANT} global property exists for
+	 * a filter then it is returned in place of the filter's default registration. Variants of different
+	 * filters can be combined but at most one variant of each filter should be selected.
+	 *
+	 * @return a list of hibernate filter registrations
 	 */
-	public static void initializeFilters() throws ReflectiveOperationException {
-		log.info("Initializing filters");
-		
-		//Register hibernate filters
-		for (HibernateFilterRegistration registration : getHibernateFilterRegistrations()) {
-			if (registration.getProperty() == null) {
-				ParamDef[] paramDefs = null;
-				if (CollectionUtils.isNotEmpty(registration.getParameters())) {
-					paramDefs = new ParamDef[registration.getParameters().size()];
-					int index = 0;
-					for (HibernateFilterParameter parameter : registration.getParameters()) {
-						paramDefs[index] = new ParamDefAnnotation(parameter.getName(), parameter.getType());
-						index++;
-					}
-				}
-				
-				for (Class clazz : registration.getTargetClasses()) {
-					if (!clazz.isAnnotationPresent(Entity.class)) {
-						continue;
-					}
-					
-					registerFilter(clazz,
-					    new FilterDefAnnotation(registration.getName(), registration.getDefaultCondition(), paramDefs),
-					    new FilterAnnotation(registration.getName(), registration.getCondition()));
-				}
-				
-			} else {
-				//This is a filter to be applied to a property
-				if (registration.getTargetClasses().size() > 1) {
-					throw new APIException("Only one target class can be defined for a filter added to a property");
-				}
-				
-				try {
-					addAnnotationToField(registration.getProperty(), registration.getTargetClasses().get(0),
-					    new FilterAnnotation(registration.getName(), registration.getCondition()));
-				}
-				catch (ReflectiveOperationException e) {
-					throw new APIException(e);
-				}
-			}
+	protected static List<HibernateFilterRegistration> getActiveHibernateFilterRegistrations() {
+		final String value = StringUtils.trimToNull(GlobalPropertyCache.getValue(DataFilterConstants.GP_FILTER_VARIANT));
+		List<HibernateFilterRegistration> registrations = getHibernateFilterRegistrations();
+		if (value == null) {
+			return registrations.stream().filter(r -> r.getVariantOf() == null).collect(Collectors.toList());
 		}
 		
-		//Register full text filters
-		for (FullTextFilterRegistration registration : getFullTextFilterRegistrations()) {
-			//Full text filters are added to one entity but can be enabled for any entity
-			registerFullTextFilter(registration.getTargetClasses().get(0), new FullTextFilterDefAnnotation(
-			        registration.getName(), registration.getImplClass(), registration.getCacheMode()));
-		}
-		
-		Context.addConfigProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, DataFilterSessionContext.class.getName());
+		final Set<String> variants = Arrays.stream(StringUtils.split(value, ',')).map(String::trim)
+		        .filter(StringUtils::isNotEmpty).map(String::toLowerCase).collect(Collectors.toSet());
+		Set<String> filtersWithVariant = registrations.stream()
+		        .filter(r -> r.getVariantOf() != null && isSelectedVariant(r, variants))
+		        .map(HibernateFilterRegistration::getVariantOf).collect(Collectors.toSet());
 		
-		log.info("Successfully initialized filters");
+		return registrations.stream().filter(r -> r.getVariantOf() == null ? !filtersWithVariant.contains(r.getName())
+		        : isSelectedVariant(r, variants)).collect(Collectors.toList());
 	}
 	
-	/**
-	 * Adds the specified {@link org.hibernate.annotations.FilterDef} and
-	 * {@link org.hibernate.annotations.Filter} annotations to the specified class object.
-	 * 
-	 * @param entityClass the class object to add the annotations
-	 * @param filterDefAnnotation the {@link org.hibernate.annotations.FilterDef} annotation to add
-	 * @param filterAnnotation the {@link org.hibernate.annotations.Filter} annotation to add
-	 */
-	protected static void registerFilter(Class<?> entityClass, FilterDefAnnotation filterDefAnnotation,
-	        FilterAnnotation filterAnnotation) throws ReflectiveOperationException {
-		
-		addAnnotationToGroup(entityClass, FilterDefs.class, filterDefAnnotation);
-		addAnnotationToGroup(entityClass, Filters.class, filterAnnotation);
+	private static boolean isSelectedVariant(HibernateFilterRegistration registration, Set<String> variants) {
+		return registration.getVariant() != null && variants.contains(registration.getVariant().toLowerCase());
 	}
 	
-	/**
-	 * Adds the specified {@link org.hibernate.search.annotations.FullTextFilterDef} annotation to the
-	 * specified class object.
-	 *
-	 * @param entityClass the class object to add the annotation
-	 * @param filterDefAnnotation the {@link org.hibernate.search.annotations.FullTextFilterDef}
-	 *            annotation to add
-	 */
-	protected static void registerFullTextFilter(Class<?> entityClass, FullTextFilterDefAnnotation filterDefAnnotation)
-	        throws ReflectiveOperationException {
-		addAnnotationToGroup(entityClass, FullTextFilterDefs.class, filterDefAnnotation);
-	}
-	
-	/**
-	 * Utility method that adds a grouped annotation to it's containing aggregate annotation.
-	 * 
-	 * @param entityClass the class that has the aggregate annotation
-	 * @param aggregateAnnClass the aggregate annotation type
-	 * @param toAdd the grouped annotation instance to add
-	 */
-	private static void addAnnotationToGroup(Class<?> entityClass, Class<? extends Annotation> aggregateAnnClass,
-	        Annotation toAdd) throws ReflectiveOperationException {
-		
-		Annotation aggregateAnnotation = entityClass.getAnnotation(aggregateAnnClass);
-		if (aggregateAnnotation == null) {
-			if (FilterDefs.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FilterDefsAnnotation();
-			} else if (Filters.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FiltersAnnotation();
-			} else if (FullTextFilterDefs.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FullTextFilterDefsAnnotation();
-			}
-			
-			addAnnotationToClass(entityClass, aggregateAnnotation);
-		}
-		
-		((AggregateAnnotation) aggregateAnnotation).add(toAdd);
-	}
-	
-	/**
-	 * Adds the specified annotation to the specified class
-	 * 
-	 * @param clazz the class to add the annotation
-	 * @param annotation the annotation to add
-	 */
-	public static void addAnnotationToClass(Class<?> clazz, Annotation annotation) throws ReflectiveOperationException {
-		
-		final String annotationName = annotation.annotationType().getName();
-		if (log.isDebugEnabled()) {
-			log.debug("Adding " + annotationName + " annotation to " + clazz.getName());
-		}
-		
-		Method method = Class.class.getDeclaredMethod("getDeclaredAnnotationMap");
-		boolean accessible = method.isAccessible();
-		try {
-			method.setAccessible(true);
-			Map<Class<? extends Annotation>, Annotation> map = (Map<Class<? extends Annotation>, Annotation>) method
-			        .invoke(clazz);
-			//TODO handle the case where the annotation is already present in case of module restart
-			map.put(annotation.annotationType(), annotation);
-			
-			if (log.isDebugEnabled()) {
-				log.debug("Successfully added " + annotationName + " annotation to " + clazz.getName());
-			}
-		}
-		catch (InvocationTargetException | IllegalAccessException e) {
-			log.error("Failed to add " + annotationName + " annotation to " + clazz.getName(), e);
-			throw e;
-		}
-		finally {
-			//Always reset
-			method.setAccessible(accessible);
+	public static List<FullTextFilterRegistration> getFullTextFilterRegistrations() {
+		if (fullTextFilterRegistrations == null) {
+			loadFilterRegistrations(false);
 		}
 		
+		return fullTextFilterRegistrations;
 	}
 	
 	/**
-	 * Adds an annotation to the field with a matching name in the specified class
-	 * 
-	 * @param fieldName the name of the field
-	 * @param clazz the class to add the annotation
-	 * @param annotation the annotation to add
+	 * Registers the hibernate session context and search mapping of the module, the filters for
+	 * persistent classes mapped with JPA annotations are registered by the
+	 * {@link DataFilterMetadataContributor} while the full text filters are defined by the
+	 * {@link DataFilterSearchMappingFactory}.
 	 */
-	private static void addAnnotationToField(String fieldName, Class<?> clazz, Annotation annotation)
-	        throws ReflectiveOperationException {
+	public static void initializeFilters() {
+		log.info("Initializing filters");
 		
-		final String annotationName = annotation.annotationType().getName();
-		if (log.isDebugEnabled()) {
-			log.debug("Adding " + annotationName + " annotation to " + clazz.getName() + "." + fieldName);
-		}
+		Context.addConfigProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, DataFilterSessionContext.class.getName());
+		//Defines the full text filters and indexes the locations of the patients that own the records the
+		//location based full text filter applies to
+		Context.addConfigProperty(org.hibernate.search.cfg.Environment.MODEL_MAPPING,
+		    DataFilterSearchMappingFactory.class.getName());
 		
-		Field field = clazz.getDeclaredField(fieldName);
-		boolean fieldAccessible = field.isAccessible();
-		field.setAccessible(true);
-		Method method = Field.class.getDeclaredMethod("declaredAnnotations");
-		boolean methodAccessible = method.isAccessible();
-		method.setAccessible(true);
-		try {
-			Map<Class<? extends Annotation>, Annotation> map = (Map<Class<? extends Annotation>, Annotation>) method
-			        .invoke(field);
-			
-			//TODO handle the case where the annotation is already present in case of module restart
-			//TODO We also need to take care of Filters annotations if present
-			map.put(annotation.annotationType(), annotation);
-			
-			if (log.isDebugEnabled()) {
-				log.debug("Successfully added " + annotationName + " annotation to " + clazz.getName() + "." + fieldName);
-			}
-		}
-		catch (InvocationTargetException | IllegalAccessException e) {
-			log.error("Failed to add " + annotationName + " annotation to " + clazz.getName() + "." + fieldName, e);
-			throw e;
-		}
-		finally {
-			//Always reset
-			field.setAccessible(fieldAccessible);
-			method.setAccessible(methodAccessible);
-		}
+		log.info("Successfully initialized filters");
 	}
 	
 	/**
@@ -425,11 +258,51 @@ public class Util {
 			        "Failed to load some " + (isHibernate ? "hibernate" : "full text") + " filter registrations", e);
 		}
 		
+		if (isHibernate) {
+			validateVariants(hibernateFilterRegistrations);
+		}
+		
 		if (log.isDebugEnabled()) {
 			log.debug("Successfully loaded " + (isHibernate ? "hibernate" : "full text") + " filter registrations");
 		}
 	}
 	
+	/**
+	 * Checks that every variant references an existing filter registration for the same property that
+	 * is not a variant itself and that it has a variant name and the same target classes as the filter
+	 *
+	 * @param registrations the hibernate filter registrations to validate
+	 */
+	private static void validateVariants(List<HibernateFilterRegistration> registrations) {
+		//A filter can be registered for a class and a collection property under the same name
+		Map<String, HibernateFilterRegistration> nameRegistrationMap = new HashMap<>();
+		for (HibernateFilterRegistration registration : registrations) {
+			nameRegistrationMap.put(registration.getName() + ":" + registration.getProperty(), registration);
+		}
+		
+		for (HibernateFilterRegistration registration : registrations) {
+			if (registration.getVariantOf() == null) {
+				continue;
+			}
+			
+			HibernateFilterRegistration base = nameRegistrationMap
+			        .get(registration.getVariantOf() + ":" + registration.getProperty());
+			if (base == null || base.getVariantOf() != null) {
+				throw new APIException("Filter " + registration.getName() + " is a variant of an unknown filter "
+				        + registration.getVariantOf());
+			}
+			
+			if (StringUtils.isBlank(registration.getVariant())) {
+				throw new APIException("No variant name specified for filter " + registration.getName());
+			}
+			
+			if (!base.getTargetClasses().equals(registration.getTargetClasses())) {
+				throw new APIException(
+				        "Filter " + registration.getName() + " must have the same target classes as " + base.getName());
+			}
+		}
+	}
+	
 	/**
 	 * Parses the contents of the specified xml file
 	 * 
@@ -537,7 +410,7 @@ public class Util {
 	 * @param cfgFilename the hibernate cfg file to search
 	 * @return a list of all the resource names
 	 */
-	private static List<String> getMappingResources(String cfgFilename) {
+	static List<String> getMappingResources(String cfgFilename) {
 		
 		String xpathExpression = "/hibernate-configuration/session-factory/mapping/@resource";
 		NodeList resourceAttributes = readFromXmlFile(xpathExpression, cfgFilename, XPathConstants.NODESET);
@@ -554,36 +427,40 @@ public class Util {
 	}
 	
 	/**
-	 * Processes the specified freemarker xslt template and applies the resulting xslt to a xml
-	 * {@link InputStream} and adds the transformed bytes to the specified {@link OutputStream}.
+	 * Writes the specified xml document to the specified {@link OutputStream} retaining its doctype
 	 * 
-	 * @param in the {@link InputStream} for the xml payload
-	 * @param xsltTemplate the freemarker {@link Template} of the xslt
-	 * @param out the {@link OutputStream} to which to add the transformed bytes
-	 * @param model a map of data to use to evaluate the freemarker template
+	 * @param doc the document to write
+	 * @param out the {@link OutputStream} to which to write the document
 	 */
-	public static void applyXslt(InputStream in, Template xsltTemplate, OutputStream out, Map model) {
+	private static void writeDocument(Document doc, OutputStream out) {
 		try {
-			ByteArrayOutputStream xsltOut = new ByteArrayOutputStream();
-			OutputStreamWriter writer = new OutputStreamWriter(xsltOut);
-			//Generate the final xslt to apply to the mapping resource for this filter registration
-			xsltTemplate.process(model, writer);
-			
-			InputStream xslt = new ByteArrayInputStream(xsltOut.toByteArray());
-			Transformer transformer = transformerFactory.newTransformer(new StreamSource(xslt));
+			Transformer transformer = transformerFactory.newTransformer();
 			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 			transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-			Document doc = documentBuilder.parse(in);
 			DocumentType docType = doc.getDoctype();
 			if (docType != null) {
 				transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, docType.getPublicId());
 				transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, docType.getSystemId());
 			}
 			transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
-			StreamResult result = new StreamResult(out);
-			transformer.transform(new DOMSource(doc), result);
+			transformer.transform(new DOMSource(doc), new StreamResult(out));
 		}
-		catch (Exception e) {
+		catch (TransformerException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Parses the xml from the specified {@link InputStream} and closes it
+	 * 
+	 * @param in the {@link InputStream} for the xml payload
+	 * @return the parsed document
+	 */
+	private static Document parseXml(InputStream in) {
+		try {
+			return documentBuilder.parse(in);
+		}
+		catch (SAXException | IOException e) {
 			throw new RuntimeException(e);
 		}
 		finally {
@@ -600,13 +477,62 @@ public class Util {
 	 * @param filterReg the {@link org.openmrs.module.datafilter.registration.FilterRegistration} object
 	 */
 	public static void addFilterToMappingResource(InputStream in, OutputStream out, HibernateFilterRegistration filterReg) {
-		Map<String, Object> model = new HashMap<>();
-		model.put("filterName", filterReg.getName());
-		model.put("defaultCondition", StringEscapeUtils.escapeXml(filterReg.getDefaultCondition()));
-		model.put("condition", StringEscapeUtils.escapeXml(filterReg.getCondition()));
-		model.put("parameters", filterReg.getParameters());
+		addFiltersToMappingResource(in, out, Collections.singletonList(filterReg));
+	}
+	
+	/**
+	 * Adds the specified filters to a hbm mapping file, the file is parsed and written only once
+	 * regardless of the number of filters. For each filter, a filter-def element is appended to the
+	 * hibernate-mapping element and a filter element to each of its class elements.
+	 * 
+	 * @param in the {@link InputStream} of the hbm mapping resource to add the filters
+	 * @param out the {@link OutputStream} to which to write the transformed mapping resource bytes
+	 *            after the filters have been added
+	 * @param filterRegs the {@link HibernateFilterRegistration} objects of the filters to add
+	 */
+	public static void addFiltersToMappingResource(InputStream in, OutputStream out,
+	        List<HibernateFilterRegistration> filterRegs) {
+		
+		Document doc = parseXml(in);
+		Element mappingElement = doc.getDocumentElement();
+		List<Element> classElements = new ArrayList<>();
+		NodeList children = mappingElement.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i) instanceof Element && "class".equals(children.item(i).getNodeName())) {
+				classElements.add((Element) children.item(i));
+			}
+		}
 		
-		applyXslt(in, addEntityFilterXsltTemplate, out, model);
+		for (HibernateFilterRegistration filterReg : filterRegs) {
+			Element filterDef = doc.createElement("filter-def");
+			filterDef.setAttribute("name", filterReg.getName());
+			if (StringUtils.isNotBlank(filterReg.getDefaultCondition())) {
+				filterDef.setAttribute("condition", filterReg.getDefaultCondition());
+			}
+			
+			if (filterReg.getParameters() != null) {
+				for (HibernateFilterParameter parameter : filterReg.getParameters()) {
+					Element filterParam = doc.createElement("filter-param");
+					filterParam.setAttribute("name", parameter.getName());
+					filterParam.setAttribute("type", parameter.getType());
+					filterDef.appendChild(filterParam);
+				}
+			}
+			
+			mappingElement.appendChild(filterDef);
+			
+			for (Element classElement : classElements) {
+				Element filter = doc.createElement("filter");
+				filter.setAttribute("name", filterReg.getName());
+				if (StringUtils.isNotBlank(filterReg.getCondition())) {
+					filter.setAttribute("condition", filterReg.getCondition());
+				}
+				
+				classElement.appendChild(filter);
+			}
+		}
+		
+		writeDocument(doc, out);
 	}
 	
 	/**
@@ -623,48 +549,91 @@ public class Util {
 	public static void updateResourceLocation(InputStream in, String resourceName, String resourceFilename,
 	        OutputStream out) {
 		
-		Map<String, String> model = new HashMap<>();
-		model.put("resourceName", resourceName);
-		model.put("resourceFilename", resourceFilename);
+		updateResourceLocations(in, Collections.singletonMap(resourceName, resourceFilename), out);
+	}
+	
+	/**
+	 * Changes the locations of the mapping files for persistent entities in a hibernate cfg file by
+	 * replacing the resource attribute of each matching mapping element with a file attribute, the
+	 * file is parsed and written only once regardless of the number of mappings to change.
+	 * 
+	 * @param in the {@link InputStream} of the hibernate cfg file
+	 * @param resourceNameAndFilenames map of the resource names to match and the absolute paths of
+	 *            the files to switch to
+	 * @param out the {@link OutputStream} to which to write the new hibernate cfg bytes after switching
+	 *            the mapping locations
+	 */
+	public static void updateResourceLocations(InputStream in, Map<String, String> resourceNameAndFilenames,
+	        OutputStream out) {
+		
+		Document doc = parseXml(in);
+		List<Element> mappings = new ArrayList<>();
+		NodeList sessionFactories = doc.getElementsByTagName("session-factory");
+		for (int i = 0; i < sessionFactories.getLength(); i++) {
+			NodeList nodes = ((Element) sessionFactories.item(i)).getElementsByTagName("mapping");
+			for (int j = 0; j < nodes.getLength(); j++) {
+				mappings.add((Element) nodes.item(j));
+			}
+		}
+		
+		for (Element mapping : mappings) {
+			String filename = resourceNameAndFilenames.get(mapping.getAttribute("resource"));
+			if (filename == null) {
+				continue;
+			}
+			
+			//Replace the mapping element with one that only references the file
+			Element newMapping = doc.createElement("mapping");
+			newMapping.setAttribute("file", filename);
+			mapping.getParentNode().replaceChild(newMapping, mapping);
+		}
 		
-		applyXslt(in, updateMappingLocXsltTemplate, out, model);
+		writeDocument(doc, out);
 	}
 	
 	/**
-	 * Creates a new mapping file after adding the filters
+	 * Creates a new mapping file after adding the filters, the file is reused from the
+	 * {@link MappingFileCache} if the mapping resource and filter registrations are unchanged since it
+	 * was created.
 	 * 
 	 * @param hbmResourceName the name of the original mapping resource
 	 * @param filterRegistrations list of FilterRegistrations to add to the mapping file
-	 * @param outputDir the directory where to create the new files
+	 * @param outputDir the directory where to create the new files if the cache can't be used
 	 * @return the new mapping file
 	 * @throws IOException
 	 */
 	protected static File createNewMappingFile(String hbmResourceName, List<HibernateFilterRegistration> filterRegistrations,
 	        File outputDir) throws IOException {
 		
-		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(hbmResourceName);
-		ByteArrayOutputStream outFinal = null;
-		
-		for (HibernateFilterRegistration filterReg : filterRegistrations) {
-			if (outFinal != null) {
-				in = new ByteArrayInputStream(outFinal.toByteArray());
-			}
-			
-			ByteArrayOutputStream outTemp = new ByteArrayOutputStream();
-			Util.addFilterToMappingResource(in, outTemp, filterReg);
-			outFinal = outTemp;
+		final byte[] hbmContent;
+		try (InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(hbmResourceName)) {
+			hbmContent = IOUtils.toByteArray(in);
 		}
 		
 		String hbmFilename = hbmResourceName;
 		if (hbmFilename.indexOf("/") > 0) {
-			hbmFilename = hbmFilename.substring(hbmFilename.lastIndexOf("/"));
+			hbmFilename = hbmFilename.substring(hbmFilename.lastIndexOf("/") + 1);
 		}
 		
-		File newMappingFile = FileUtils.getFile(outputDir, hbmFilename);
-		
-		FileUtils.writeByteArrayToFile(newMappingFile, outFinal.toByteArray());
+		List<Object> keyParts = new ArrayList<>();
+		keyParts.add(hbmResourceName);
+		keyParts.add(hbmContent);
+		for (HibernateFilterRegistration filterReg : filterRegistrations) {
+			keyParts.add(filterReg.getName());
+			keyParts.add(filterReg.getDefaultCondition());
+			keyParts.add(filterReg.getCondition());
+			if (filterReg.getParameters() != null) {
+				for (HibernateFilterParameter parameter : filterReg.getParameters()) {
+					keyParts.add(parameter.getName() + ":" + parameter.getType());
+				}
+			}
+		}
 		
-		return newMappingFile;
+		return MappingFileCache.get(keyParts, hbmFilename, outputDir, () -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			addFiltersToMappingResource(new ByteArrayInputStream(hbmContent), out, filterRegistrations);
+			return out.toByteArray();
+		});
 	}
 	
 	/**
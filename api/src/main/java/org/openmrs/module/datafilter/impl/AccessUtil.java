@@ -9,34 +9,45 @@
  */
 package org.openmrs.module.datafilter.impl;
 
+import static org.openmrs.module.datafilter.DataFilterBeanFactoryPostProcessor.SESSION_FACTORY_BEAN_NAME;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
 import org.openmrs.BaseOpenmrsObject;
 import org.openmrs.Location;
-import org.openmrs.Program;
-import org.openmrs.Role;
 import org.openmrs.User;
+import org.openmrs.UserSessionListener;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.api.db.LocationDAO;
 import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.FullTextQueryCreatedEventListener;
+import org.openmrs.module.datafilter.ExpiringCache;
+import org.openmrs.module.datafilter.IntHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
 
 /**
  * This class provides a facade for determining the list of person ids that the authenticated user
  * is granted to access to based on some basis, the basic could be something like a Location or a
- * Program. <pre>
- *     TODO This is a very simple implementation that should be replaced with a better one
- *     that doesn't use raw sql queries, supports caching of person ids, uses global properties,
- *     basis ids and other cool features.
+ * Program. The assigned basis ids and the accessible person ids are cached and discarded whenever
+ * access is granted or revoked. <pre>
+ *     TODO Replace the raw sql queries with ones that don't depend on the database dialect
  * </pre>
  */
 public class AccessUtil {
@@ -55,48 +66,181 @@ public class AccessUtil {
 	        + "_entity_basis_map WHERE entity_identifier = '" + ENTITY_ID_PLACEHOLDER + "' AND entity_type = '"
 	        + ENTITY_TYPE_PLACEHOLDER + "' AND basis_type = '" + BASIS_TYPE_PLACEHOLDER + "'";
 	
+	private final static String ANCESTOR_IDS_PLACEHOLDER = "@ancestorIds";
+	
+	private final static String CLOSURE_QUERY = "SELECT DISTINCT descendant_id FROM " + LocationClosure.TABLE_NAME
+	        + " WHERE ancestor_id IN (" + ANCESTOR_IDS_PLACEHOLDER + ")";
+	
+	private final static long CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	private final static int CACHE_MAX_SIZE = 10000;
+	
+	private final static String CACHE_KEY_SEPARATOR = ":";
+	
+	/**
+	 * Caches the assigned basis ids per user and basis type, the keys are of the form userId:basisType
+	 */
+	private static final ExpiringCache<String, AssignedBasisIds> basisIdCache = new ExpiringCache<>(CACHE_TTL_MILLIS,
+	        CACHE_MAX_SIZE);
+	
+	/**
+	 * Caches the accessible person ids per basis type and set of basis ids so that users granted access
+	 * to the same bases share the same instance, the keys are of the form basisType:sortedBasisIds
+	 */
+	private static final ExpiringCache<String, IntHashSet> personIdCache = new ExpiringCache<>(CACHE_TTL_MILLIS,
+	        CACHE_MAX_SIZE);
+	
+	/**
+	 * Caches the view privileges of all the encounter types under a single key, encounter types are
+	 * few and rarely change
+	 */
+	private static final ExpiringCache<String, Map<Integer, String>> viewPrivilegeCache = new ExpiringCache<>(
+	        CACHE_TTL_MILLIS, 1);
+	
+	private static final String VIEW_PRIVILEGES_CACHE_KEY = "viewPrivileges";
+	
+	/**
+	 * Caches the ids of the encounter types viewable by users with a given set of roles, the keys are
+	 * the sorted role names
+	 */
+	private static final ExpiringCache<String, Set<Integer>> viewableEncounterTypeIdCache = new ExpiringCache<>(
+	        CACHE_TTL_MILLIS, CACHE_MAX_SIZE);
+	
 	/**
 	 * Gets the collection of person ids for all the persons associated to the bases of the specified
 	 * type, the basis could be something like Location, Program etc.
 	 * 
 	 * @param basisType the type to base on
 	 * @return a set of patient ids
+	 * @deprecated use {@link #getAccessiblePersonIdSet(Class)} which avoids boxing each id as a String
 	 */
+	@Deprecated
 	public static Collection<String> getAccessiblePersonIds(Class<? extends BaseOpenmrsObject> basisType) {
-		if (log.isDebugEnabled() && Context.isAuthenticated()) {
-			log.debug("Looking up accessible persons for user with Id: " + Context.getAuthenticatedUser().getId());
-		}
-		
-		Collection<String> accessibleBasisIds = getAssignedBasisIds(basisType);
-		if (!accessibleBasisIds.isEmpty()) {
-			if (log.isDebugEnabled()) {
-				log.debug(
-				    "Filtering on " + basisType.getSimpleName() + "(s) with id(s): " + String.join(",", accessibleBasisIds));
-			}
-			
-			String personQuery = ImplConstants.PERSON_ID_QUERY.replace(ImplConstants.BASIS_IDS_PLACEHOLDER,
-			    String.join(",", accessibleBasisIds));
-			List<List<Object>> personRows = executeQuery(personQuery);
-			
-			return personRows.stream().map(row -> row.get(0).toString()).collect(Collectors.toSet());
+		int[] personIds = getAccessiblePersonIdSet(basisType).toArray();
+		Set<String> ids = new HashSet<>(personIds.length * 2);
+		for (int personId : personIds) {
+			ids.add(Integer.toString(personId));
 		}
 		
-		return Collections.emptySet();
+		return ids;
+	}
+	
+	/**
+	 * Gets the ids of all the persons associated to the bases of the specified type that the
+	 * authenticated user is granted access to, the returned set is read only and is intended for
+	 * callers that need to do frequent membership checks. It is cached per basis type and set of basis
+	 * ids, i.e. the same instance is returned for all users granted access to the same bases until the
+	 * cache is cleared which allows callers to use it as a cache key.
+	 *
+	 * @param basisType the type to base on
+	 * @return a set of person ids
+	 * @see #clearCache()
+	 */
+	public static IntHashSet getAccessiblePersonIdSet(Class<? extends BaseOpenmrsObject> basisType) {
+		AssignedBasisIds assigned = getAssigned(basisType);
+		return personIdCache.get(assigned.personIdCacheKey,
+		    k -> loadAccessiblePersonIds(basisType, assigned.basisIds).makeReadOnly());
 	}
 	
 	/**
 	 * Gets the collection of basis ids for all the bases the authenticated user is granted access to
-	 * that match the specified basis type.
+	 * that match the specified basis type, the returned ids are cached per user and basis type.
 	 *
 	 * @param basisType the type to base on
 	 * @return a collection of basis ids
+	 * @see #clearCache()
 	 */
 	public static Collection<String> getAssignedBasisIds(Class<? extends BaseOpenmrsObject> basisType) {
+		return getAssigned(basisType).basisIds;
+	}
+	
+	private static AssignedBasisIds getAssigned(Class<? extends BaseOpenmrsObject> basisType) {
+		String userId = Context.getAuthenticatedUser().getUserId().toString();
+		return basisIdCache.get(userId + CACHE_KEY_SEPARATOR + basisType.getName(),
+		    key -> new AssignedBasisIds(basisType, loadAssignedBasisIds(userId, basisType)));
+	}
+	
+	/**
+	 * Clears all cached basis and person ids, this method should be called whenever entity basis
+	 * mappings or the location hierarchy change.
+	 */
+	public static void clearCache() {
+		log.debug("Clearing cached basis and person ids");
+		
+		basisIdCache.clear();
+		personIdCache.clear();
+		//The privileges of roles could have changed
+		viewableEncounterTypeIdCache.clear();
+		//The filter parameter values are computed from the basis ids
+		DataFilterSessionContext.clearActivationPlans();
+	}
+	
+	/**
+	 * Clears only the cached person ids, this method should be called whenever the mappings between
+	 * persons and their bases change.
+	 */
+	public static void clearPersonIdCache() {
+		log.debug("Clearing cached person ids");
+		
+		personIdCache.clear();
+		//The full text filter parameter values include the person ids
+		FullTextQueryCreatedEventListener.clearCache();
+	}
+	
+	/**
+	 * Clears the cached basis ids for the user with the specified user id
+	 *
+	 * @param userId the user id to match
+	 */
+	public static void clearCache(Integer userId) {
+		final String prefix = userId + CACHE_KEY_SEPARATOR;
+		//The cached person ids are shared by users with the same bases so they are only cleared with the rest
+		basisIdCache.removeIf(key -> key.startsWith(prefix));
+	}
+	
+	/**
+	 * Loads from the database the ids of all the persons associated to the bases of the specified
+	 * type with the specified ids. For locations the ids are looked up with a single statement that
+	 * joins the locations of the authenticated user, the location closure table and the locations of
+	 * the patients.
+	 *
+	 * @param basisType the type to base on
+	 * @param accessibleBasisIds the ids of the bases
+	 * @return a set of person ids
+	 */
+	private static IntHashSet loadAccessiblePersonIds(Class<? extends BaseOpenmrsObject> basisType,
+	        Collection<String> accessibleBasisIds) {
+		
+		if (accessibleBasisIds.isEmpty()) {
+			return new IntHashSet();
+		}
+		
 		if (log.isDebugEnabled()) {
-			log.debug("Looking up assigned bases for the authenticated user");
+			log.debug("Filtering on " + basisType.getSimpleName() + "(s) with id(s): " + String.join(",", accessibleBasisIds));
+		}
+		
+		if (Location.class.isAssignableFrom(basisType)) {
+			return readIds(createNativeQuery(ImplConstants.ACCESSIBLE_PATIENT_ID_QUERY).setParameter(1,
+			    Context.getAuthenticatedUser().getUserId()));
+		}
+		
+		return readIds(createNativeQuery(ImplConstants.PERSON_ID_QUERY).setParameterList(ImplConstants.PARAM_NAME_BASIS_IDS,
+		    accessibleBasisIds));
+	}
+	
+	/**
+	 * Loads from the database the basis ids for all the bases the user with the specified id is granted
+	 * access to that match the specified basis type.
+	 *
+	 * @param userId the id of the user
+	 * @param basisType the type to base on
+	 * @return a set of basis ids
+	 */
+	private static Set<String> loadAssignedBasisIds(String userId, Class<? extends BaseOpenmrsObject> basisType) {
+		if (log.isDebugEnabled()) {
+			log.debug("Looking up assigned bases for the user with Id: " + userId);
 		}
 		
-		String userId = Context.getAuthenticatedUser().getUserId().toString();
 		String query = BASIS_QUERY.replace(ENTITY_ID_PLACEHOLDER, userId);
 		query = query.replace(ENTITY_TYPE_PLACEHOLDER, User.class.getName());
 		query = query.replace(BASIS_TYPE_PLACEHOLDER, basisType.getName());
@@ -105,17 +249,26 @@ public class AccessUtil {
 		Set<String> basisIds = rows.stream().map(row -> row.get(0).toString()).collect(Collectors.toSet());
 		
 		//Include child locations in case of locations
-		if (Location.class.isAssignableFrom(basisType)) {
-			Set<String> descendantIds = new HashSet<>();
-			for (String id : basisIds) {
-				descendantIds.addAll(getAllDescendantLocationIds(id));
-			}
-			basisIds.addAll(descendantIds);
+		if (Location.class.isAssignableFrom(basisType) && !basisIds.isEmpty()) {
+			basisIds.addAll(getDescendantLocationIds(basisIds));
 		}
 		
 		return basisIds;
 	}
 	
+	/**
+	 * Gets the ids of all the descendant locations of the locations with the specified ids using the
+	 * location closure table.
+	 *
+	 * @param locationIds the ids of the locations whose descendants location ids to return
+	 * @return a set of location ids
+	 */
+	private static Set<String> getDescendantLocationIds(Set<String> locationIds) {
+		String query = CLOSURE_QUERY.replace(ANCESTOR_IDS_PLACEHOLDER,
+		    locationIds.stream().map(Integer::valueOf).map(Object::toString).collect(Collectors.joining(",")));
+		return executeQuery(query).stream().map(row -> row.get(0).toString()).collect(Collectors.toSet());
+	}
+	
 	/**
 	 * Runs the specified query
 	 * 
@@ -127,40 +280,126 @@ public class AccessUtil {
 		return adminDAO.executeSQL(query, true);
 	}
 	
+	private static NativeQuery<?> createNativeQuery(String query) {
+		SessionFactory sf = Context.getRegisteredComponent(SESSION_FACTORY_BEAN_NAME, SessionFactory.class);
+		return sf.getCurrentSession().createNativeQuery(query);
+	}
+	
 	/**
-	 * Gets all the child location ids for the location with the specified location id including those
-	 * of nested child location at all levels.
-	 * 
-	 * @param locationId the location whose descendants location ids to return
-	 * @return a collection of location ids
+	 * Runs the specified query that returns a single id column, the rows are read one at a time from
+	 * the database and ids stored as strings are parsed.
+	 *
+	 * @param nativeQuery the query to execute
+	 * @return a set of the returned ids
 	 */
-	private static Set<String> getAllDescendantLocationIds(String locationId) {
-		Set<String> ids = new HashSet<>();
-		LocationDAO dao = Context.getRegisteredComponent("locationDAO", LocationDAO.class);
-		Location location = dao.getLocation(Integer.valueOf(locationId));
-		for (Location l : location.getDescendantLocations(true)) {
-			ids.add(l.getId().toString());
+	private static IntHashSet readIds(NativeQuery<?> nativeQuery) {
+		IntHashSet ids = new IntHashSet();
+		try (ScrollableResults results = nativeQuery.setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY)) {
+			while (results.next()) {
+				Object id = results.get(0);
+				if (id instanceof Number) {
+					ids.add(((Number) id).intValue());
+				} else if (id != null) {
+					ids.add(Integer.parseInt(id.toString()));
+				}
+			}
 		}
 		
 		return ids;
 	}
 	
 	/**
-	 * Gets the view privilege for the encounter type matching the specified encounter type id
+	 * Gets the view privilege for the encounter type matching the specified encounter type id, the view
+	 * privileges of all the encounter types are loaded with a single query and cached.
 	 * 
 	 * @param encounterTypeId the encounter type id to match
 	 * @return the view privilege for the matched encounter type otherwise null
+	 * @see #clearViewPrivilegeCache()
 	 */
 	public static String getViewPrivilege(Integer encounterTypeId) {
 		if (encounterTypeId == null) {
 			throw new APIException("Encounter type id is required");
 		}
-		final String query = "SELECT view_privilege FROM encounter_type WHERE encounter_type_id = " + encounterTypeId;
-		List<List<Object>> rows = executeQuery(query);
-		if (rows.isEmpty() || rows.get(0).isEmpty() || rows.get(0).get(0) == null) {
-			return null;
+		
+		return viewPrivilegeCache.get(VIEW_PRIVILEGES_CACHE_KEY, key -> loadViewPrivileges()).get(encounterTypeId);
+	}
+	
+	/**
+	 * Gets the ids of the encounter types that users with the specified roles are allowed to view i.e.
+	 * those with no view privilege and those whose view privilege is granted to any of the roles, the
+	 * returned set is read only and is cached per set of roles.
+	 *
+	 * @param roles the names of the roles of the user including the inherited ones
+	 * @return a set of encounter type ids
+	 * @see #clearViewPrivilegeCache()
+	 * @see #clearCache()
+	 */
+	public static Set<Integer> getViewableEncounterTypeIds(Collection<String> roles) {
+		String key = roles.stream().sorted().collect(Collectors.joining(","));
+		return viewableEncounterTypeIdCache.get(key, k -> Collections.unmodifiableSet(loadViewableEncounterTypeIds(roles)));
+	}
+	
+	/**
+	 * Clears the cached encounter type view privileges and viewable encounter type ids, this method
+	 * should be called whenever an encounter type is created, updated or deleted.
+	 */
+	public static void clearViewPrivilegeCache() {
+		log.debug("Clearing cached encounter type view privileges");
+		
+		viewPrivilegeCache.clear();
+		viewableEncounterTypeIdCache.clear();
+		//The filter parameter values include the viewable encounter type ids
+		DataFilterSessionContext.clearActivationPlans();
+	}
+	
+	/**
+	 * Loads from the database the view privileges of all the encounter types, encounter types with no
+	 * view privilege are mapped to null
+	 *
+	 * @return a map of encounter type ids and their view privileges
+	 */
+	private static Map<Integer, String> loadViewPrivileges() {
+		final String query = "SELECT encounter_type_id, view_privilege FROM encounter_type";
+		Map<Integer, String> encounterTypeIdPrivilegeMap = new HashMap<>();
+		for (List<Object> row : executeQuery(query)) {
+			encounterTypeIdPrivilegeMap.put(Integer.valueOf(row.get(0).toString()),
+			    row.get(1) != null ? row.get(1).toString() : null);
 		}
-		return rows.get(0).get(0).toString();
+		
+		return Collections.unmodifiableMap(encounterTypeIdPrivilegeMap);
+	}
+	
+	/**
+	 * Matches the cached view privileges of all the encounter types against the privileges granted to
+	 * the specified roles which are loaded from the database.
+	 *
+	 * @param roles the names of the roles
+	 * @return a set of encounter type ids
+	 */
+	private static Set<Integer> loadViewableEncounterTypeIds(Collection<String> roles) {
+		if (log.isDebugEnabled()) {
+			log.debug("Looking up the viewable encounter types for the role(s): " + String.join(",", roles));
+		}
+		
+		Set<String> privileges = new HashSet<>();
+		if (!roles.isEmpty()) {
+			SessionFactory sf = Context.getRegisteredComponent(SESSION_FACTORY_BEAN_NAME, SessionFactory.class);
+			List<?> rows = sf.getCurrentSession().createNativeQuery(ImplConstants.ROLE_PRIVILEGE_QUERY)
+			        .setParameterList(ImplConstants.PARAM_NAME_ROLES, roles).list();
+			for (Object privilege : rows) {
+				privileges.add(privilege.toString());
+			}
+		}
+		
+		Map<Integer, String> viewPrivileges = viewPrivilegeCache.get(VIEW_PRIVILEGES_CACHE_KEY, key -> loadViewPrivileges());
+		Set<Integer> encounterTypeIds = new HashSet<>();
+		for (Map.Entry<Integer, String> entry : viewPrivileges.entrySet()) {
+			if (entry.getValue() == null || privileges.contains(entry.getValue())) {
+				encounterTypeIds.add(entry.getKey());
+			}
+		}
+		
+		return encounterTypeIds;
 	}
 	
 	/**
@@ -183,8 +422,8 @@ public class AccessUtil {
 	 * @return a list of all program role names
 	 */
 	protected static Collection<String> getAllProgramRoles() {
-		final String query = "SELECT DISTINCT entity_identifier FROM datafilter_entity_basis_map WHERE entity_type = '"
-		        + Role.class.getName() + "' AND basis_type = '" + Program.class.getName() + "'";
+		final String query = "SELECT DISTINCT entity_identifier FROM datafilter_entity_basis_map WHERE entity_type_code = "
+		        + ImplConstants.TYPE_CODE_ROLE + " AND basis_type_code = " + ImplConstants.TYPE_CODE_PROGRAM;
 		List<List<Object>> rows = executeQuery(query);
 		List<String> roles = new ArrayList();
 		for (List<Object> row : rows) {
@@ -194,4 +433,42 @@ public class AccessUtil {
 		return roles;
 	}
 	
+	/**
+	 * Holds the basis ids assigned to a user along with the key of their accessible person ids in the
+	 * person id cache, the key is computed once when the basis ids are loaded since the lookups of the
+	 * person ids can be frequent e.g. once per loaded entity in strict mode.
+	 */
+	private static final class AssignedBasisIds {
+		
+		private final Set<String> basisIds;
+		
+		private final String personIdCacheKey;
+		
+		AssignedBasisIds(Class<? extends BaseOpenmrsObject> basisType, Set<String> basisIds) {
+			this.basisIds = Collections.unmodifiableSet(basisIds);
+			personIdCacheKey = basisType.getName() + CACHE_KEY_SEPARATOR
+			        + basisIds.stream().sorted().collect(Collectors.joining(","));
+		}
+		
+	}
+	
+	/**
+	 * Custom {@link UserSessionListener} that evicts the cached basis and person ids for a user when they log in or
+	 * out so that any changes made to their access are picked up the next time they log in.
+	 */
+	@Component
+	public static class AccessCacheUserSessionListener implements UserSessionListener {
+		
+		/**
+		 * @see UserSessionListener#loggedInOrOut(User, Event, Status)
+		 */
+		@Override
+		public void loggedInOrOut(User user, Event event, Status status) {
+			if (user != null && user.getUserId() != null) {
+				clearCache(user.getUserId());
+			}
+		}
+		
+	}
+	
 }
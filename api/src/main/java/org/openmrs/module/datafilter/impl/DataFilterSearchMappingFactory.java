@@ -0,0 +1,56 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import org.hibernate.search.annotations.Analyze;
+import org.hibernate.search.annotations.Factory;
+import org.hibernate.search.annotations.FilterCacheModeType;
+import org.hibernate.search.annotations.Index;
+import org.hibernate.search.annotations.Norms;
+import org.hibernate.search.annotations.Store;
+import org.hibernate.search.cfg.SearchMapping;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.module.datafilter.Util;
+import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
+
+/**
+ * Programmatic hibernate search mapping that is merged with the annotation based mappings of the
+ * indexed classes, it defines the registered full text filters and adds the
+ * {@link PatientLocationFieldBridge} to the classes the location based full text filter applies to.
+ * The mapping is built before the global properties can be read so the bridge is always added, it
+ * only looks up the patient locations when they are enabled.
+ */
+public class DataFilterSearchMappingFactory {
+	
+	@Factory
+	public SearchMapping getSearchMapping() {
+		SearchMapping mapping = new SearchMapping();
+		//Full text filter definitions are global, they can be enabled for any entity
+		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			FilterCacheModeType cacheMode = FilterCacheModeType.INSTANCE_AND_DOCIDSETRESULTS;
+			if (registration.getCacheMode() != null) {
+				cacheMode = FilterCacheModeType.valueOf(registration.getCacheMode());
+			}
+			
+			mapping.fullTextFilterDef(registration.getName(), registration.getImplClass()).cache(cacheMode);
+		}
+		
+		for (Class<?> clazz : new Class<?>[] { PersonName.class, PatientIdentifier.class, PersonAttribute.class }) {
+			mapping.entity(clazz).classBridge(PatientLocationFieldBridge.class)
+			        .name(ImplConstants.FULL_TEXT_FIELD_PATIENT_LOCATION_IDS).index(Index.YES).analyze(Analyze.NO)
+			        .norms(Norms.NO).store(Store.NO);
+		}
+		
+		return mapping;
+	}
+	
+}
@@ -0,0 +1,78 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * An instance of this class represents a row in the encounter visibility table, there is a row for
+ * every encounter holding its encounter type, this makes it possible for the filters on records
+ * linked to encounters e.g. obs to check the encounter type with a single lookup in a narrow
+ * indexed table instead of sub queries against the encounter table.
+ */
+@Entity
+@Table(name = DataFilterConstants.MODULE_ID + "_encounter_visibility", indexes = @Index(name = DataFilterConstants.MODULE_ID
+        + "_encounter_visibility_type_index", columnList = "encounter_type, encounter_id"))
+public class EncounterVisibility implements Serializable {
+	
+	public static final String TABLE_NAME = DataFilterConstants.MODULE_ID + "_encounter_visibility";
+	
+	@Id
+	@Column(name = "encounter_id", nullable = false, updatable = false)
+	private Integer encounterId;
+	
+	@Column(name = "encounter_type", nullable = false)
+	private Integer encounterType;
+	
+	/**
+	 * Gets the encounterId
+	 *
+	 * @return the encounterId
+	 */
+	public Integer getEncounterId() {
+		return encounterId;
+	}
+	
+	/**
+	 * Sets the encounterId
+	 *
+	 * @param encounterId the encounterId to set
+	 */
+	public void setEncounterId(Integer encounterId) {
+		this.encounterId = encounterId;
+	}
+	
+	/**
+	 * Gets the encounterType
+	 *
+	 * @return the encounterType
+	 */
+	public Integer getEncounterType() {
+		return encounterType;
+	}
+	
+	/**
+	 * Sets the encounterType
+	 *
+	 * @param encounterType the encounterType to set
+	 */
+	public void setEncounterType(Integer encounterType) {
+		this.encounterType = encounterType;
+	}
+	
+}
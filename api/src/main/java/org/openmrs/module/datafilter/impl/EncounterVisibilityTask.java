@@ -0,0 +1,69 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduled task that checks if the {@link EncounterVisibility} table is in sync with the encounter
+ * table and rebuilds it if it isn't e.g. after encounters were imported or their types changed via
+ * raw SQL, set the rebuild task property to false to only check and report the inconsistencies.
+ *
+ * @see DataFilterService#checkEncounterVisibility()
+ * @see DataFilterService#rebuildEncounterVisibility()
+ */
+public class EncounterVisibilityTask extends AbstractTask {
+	
+	private static final Logger log = LoggerFactory.getLogger(EncounterVisibilityTask.class);
+	
+	public static final String PROPERTY_REBUILD = "rebuild";
+	
+	/**
+	 * @see AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (isExecuting) {
+			log.info("Encounter visibility check is already running");
+			return;
+		}
+		
+		startExecuting();
+		try {
+			DataFilterService service = Context.getService(DataFilterService.class);
+			long start = System.currentTimeMillis();
+			long count = service.checkEncounterVisibility();
+			if (count == 0) {
+				log.info("Encounter visibility table is in sync, checked in " + (System.currentTimeMillis() - start) + "ms");
+				return;
+			}
+			
+			log.warn("Found " + count + " missing or stale row(s) in the encounter visibility table");
+			if (isRebuildEnabled()) {
+				int changed = service.rebuildEncounterVisibility();
+				log.info("Rebuilt the encounter visibility table, " + changed + " row(s) inserted or deleted in "
+				        + (System.currentTimeMillis() - start) + "ms");
+			}
+		}
+		finally {
+			stopExecuting();
+		}
+	}
+	
+	private boolean isRebuildEnabled() {
+		String rebuild = getTaskDefinition() != null ? getTaskDefinition().getProperty(PROPERTY_REBUILD) : null;
+		return !"false".equalsIgnoreCase(rebuild);
+	}
+	
+}
@@ -16,6 +16,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -35,9 +36,15 @@ import org.openmrs.module.datafilter.DataFilterConstants;
 @Table(name = DataFilterConstants.MODULE_ID
         + "_entity_basis_map", uniqueConstraints = @UniqueConstraint(name = DataFilterConstants.MODULE_ID
                 + "_entity_basis_map_uk", columnNames = { "entity_identifier", "entity_type", "basis_identifier",
-                        "basis_type" }))
+                        "basis_type" }), indexes = {
+                                @Index(name = DataFilterConstants.MODULE_ID
+                                        + "_entity_basis_entity_id_index", columnList = "entity_id, entity_type_code, basis_type_code, basis_id"),
+                                @Index(name = DataFilterConstants.MODULE_ID
+                                        + "_entity_basis_index", columnList = "entity_type_code, basis_type_code, basis_identifier, entity_identifier") })
 public class EntityBasisMap extends BaseOpenmrsObject implements Creatable {
 	
+	public static final String TABLE_NAME = DataFilterConstants.MODULE_ID + "_entity_basis_map";
+	
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	@Column(name = "entity_basis_map_id")
@@ -55,6 +62,33 @@ public class EntityBasisMap extends BaseOpenmrsObject implements Creatable {
 	@Column(name = "basis_type", nullable = false, updatable = false)
 	private String basisType;
 	
+	/**
+	 * The code of the entity type in the {@link EntityBasisType} dictionary
+	 */
+	@Column(name = "entity_type_code", nullable = false)
+	private Short entityTypeCode;
+	
+	/**
+	 * The code of the basis type in the {@link EntityBasisType} dictionary
+	 */
+	@Column(name = "basis_type_code", nullable = false)
+	private Short basisTypeCode;
+	
+	/**
+	 * The entity identifier as an integer so that filter conditions can compare it to the integer id
+	 * columns, it is set to {@link ImplConstants#NON_NUMERIC_ID} for entity types that are not
+	 * identified by their integer ids.
+	 */
+	@Column(name = "entity_id", nullable = false)
+	private Integer entityId;
+	
+	/**
+	 * The basis identifier as an integer, it is set to {@link ImplConstants#NON_NUMERIC_ID} for basis
+	 * types that are not identified by their integer ids.
+	 */
+	@Column(name = "basis_id", nullable = false)
+	private Integer basisId;
+	
 	@ManyToOne(optional = false)
 	@JoinColumn(name = "creator", nullable = false, updatable = false)
 	private User creator;
@@ -168,6 +202,78 @@ public class EntityBasisMap extends BaseOpenmrsObject implements Creatable {
 		this.basisType = basisType;
 	}
 	
+	/**
+	 * Gets the entityTypeCode
+	 *
+	 * @return the entityTypeCode
+	 */
+	public Short getEntityTypeCode() {
+		return entityTypeCode;
+	}
+	
+	/**
+	 * Sets the entityTypeCode
+	 *
+	 * @param entityTypeCode the entityTypeCode to set
+	 */
+	public void setEntityTypeCode(Short entityTypeCode) {
+		this.entityTypeCode = entityTypeCode;
+	}
+	
+	/**
+	 * Gets the basisTypeCode
+	 *
+	 * @return the basisTypeCode
+	 */
+	public Short getBasisTypeCode() {
+		return basisTypeCode;
+	}
+	
+	/**
+	 * Sets the basisTypeCode
+	 *
+	 * @param basisTypeCode the basisTypeCode to set
+	 */
+	public void setBasisTypeCode(Short basisTypeCode) {
+		this.basisTypeCode = basisTypeCode;
+	}
+	
+	/**
+	 * Gets the entityId
+	 *
+	 * @return the entityId
+	 */
+	public Integer getEntityId() {
+		return entityId;
+	}
+	
+	/**
+	 * Sets the entityId
+	 *
+	 * @param entityId the entityId to set
+	 */
+	public void setEntityId(Integer entityId) {
+		this.entityId = entityId;
+	}
+	
+	/**
+	 * Gets the basisId
+	 *
+	 * @return the basisId
+	 */
+	public Integer getBasisId() {
+		return basisId;
+	}
+	
+	/**
+	 * Sets the basisId
+	 *
+	 * @param basisId the basisId to set
+	 */
+	public void setBasisId(Integer basisId) {
+		this.basisId = basisId;
+	}
+	
 	/**
 	 * @see Creatable#getCreator()
 	 */
@@ -0,0 +1,83 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * An instance of this class represents an entry in the dictionary of the entity and basis types
+ * referenced by {@link EntityBasisMap}s, each type is assigned a short numeric code which is stored
+ * alongside the type name in the entity basis map so that the filters can match against a small
+ * integer column instead of a fully qualified class name. The codes of the types used by the
+ * bundled filters are reserved, see {@link ImplConstants#RESERVED_TYPE_CODES}.
+ */
+@Entity
+@Table(name = DataFilterConstants.MODULE_ID + "_entity_basis_type")
+public class EntityBasisType implements Serializable {
+	
+	@Id
+	@Column(name = "code", nullable = false, updatable = false)
+	private Short code;
+	
+	@Column(name = "type_name", nullable = false, updatable = false, unique = true)
+	private String typeName;
+	
+	public EntityBasisType() {
+	}
+	
+	public EntityBasisType(Short code, String typeName) {
+		this.code = code;
+		this.typeName = typeName;
+	}
+	
+	/**
+	 * Gets the code
+	 *
+	 * @return the code
+	 */
+	public Short getCode() {
+		return code;
+	}
+	
+	/**
+	 * Sets the code
+	 *
+	 * @param code the code to set
+	 */
+	public void setCode(Short code) {
+		this.code = code;
+	}
+	
+	/**
+	 * Gets the typeName
+	 *
+	 * @return the typeName
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+	
+	/**
+	 * Sets the typeName
+	 *
+	 * @param typeName the typeName to set
+	 */
+	public void setTypeName(String typeName) {
+		this.typeName = typeName;
+	}
+	
+}
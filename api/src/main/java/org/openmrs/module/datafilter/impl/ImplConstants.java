@@ -13,13 +13,19 @@ import static org.openmrs.module.datafilter.DataFilterConstants.DISABLED;
 import static org.openmrs.module.datafilter.DataFilterConstants.ENABLED;
 import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.openmrs.Location;
 import org.openmrs.Patient;
+import org.openmrs.Program;
+import org.openmrs.Role;
+import org.openmrs.User;
 import org.openmrs.module.datafilter.DataFilterConstants;
 
 public final class ImplConstants {
@@ -32,8 +38,12 @@ public final class ImplConstants {
 	
 	public static final String PARAM_NAME_BASIS_IDS = "basisIds";
 	
+	public static final String PARAM_NAME_NUMERIC_BASIS_IDS = "numericBasisIds";
+	
 	public static final String PARAM_NAME_ROLES = "roles";
 	
+	public static final String PARAM_NAME_VIEWABLE_ENC_TYPE_IDS = "viewableEncounterTypeIds";
+	
 	public static final String PARAM_NAME_AUTHENTICATED_PERSON_ID = "authenticatedPersonId";
 	
 	public static final String PARAM_NAME_USER_PROG_ROLES = "userProgramRoles";
@@ -105,9 +115,72 @@ public final class ImplConstants {
 	
 	public final static String BASIS_IDS_PLACEHOLDER = ":" + PARAM_NAME_BASIS_IDS;
 	
+	/*
+	 * The codes of the entity and basis types used by the bundled filters, the filter definitions
+	 * reference them as literals so they must never change
+	 */
+	public static final short TYPE_CODE_PATIENT = 1;
+	
+	public static final short TYPE_CODE_USER = 2;
+	
+	public static final short TYPE_CODE_ROLE = 3;
+	
+	public static final short TYPE_CODE_LOCATION = 4;
+	
+	public static final short TYPE_CODE_PROGRAM = 5;
+	
+	/**
+	 * Codes below this value are reserved for the types used by the bundled filters, other types are
+	 * assigned codes starting at this value as they are encountered
+	 */
+	public static final short FIRST_CUSTOM_TYPE_CODE = 64;
+	
+	public static final Map<String, Short> RESERVED_TYPE_CODES;
+	
+	/**
+	 * The value of the entity_id and basis_id columns of the entity basis maps whose entity or basis is
+	 * not identified by an integer id e.g. roles, it never matches a row since ids start at 1
+	 */
+	public static final int NON_NUMERIC_ID = 0;
+	
+	static {
+		Map<String, Short> codes = new HashMap<>();
+		codes.put(Patient.class.getName(), TYPE_CODE_PATIENT);
+		codes.put(User.class.getName(), TYPE_CODE_USER);
+		codes.put(Role.class.getName(), TYPE_CODE_ROLE);
+		codes.put(Location.class.getName(), TYPE_CODE_LOCATION);
+		codes.put(Program.class.getName(), TYPE_CODE_PROGRAM);
+		RESERVED_TYPE_CODES = Collections.unmodifiableMap(codes);
+	}
+	
 	public static final String PERSON_ID_QUERY = "SELECT DISTINCT entity_identifier FROM " + DataFilterConstants.MODULE_ID
-	        + "_entity_basis_map WHERE entity_type = '" + Patient.class.getName() + "' AND basis_type = '"
-	        + Location.class.getName() + "' AND basis_identifier IN (" + BASIS_IDS_PLACEHOLDER + ")";
+	        + "_entity_basis_map WHERE entity_type_code = " + TYPE_CODE_PATIENT + " AND basis_type_code = "
+	        + TYPE_CODE_LOCATION + " AND basis_identifier IN (" + BASIS_IDS_PLACEHOLDER + ")";
+	
+	/**
+	 * Looks up the ids of the patients at the locations the user with the id set as the parameter value
+	 * is granted access to and their descendant locations in a single statement, the SQL text is the
+	 * same for all users so that the database and the JDBC driver can reuse the prepared statement.
+	 */
+	public static final String ACCESSIBLE_PATIENT_ID_QUERY = "SELECT DISTINCT p.entity_id FROM "
+	        + DataFilterConstants.MODULE_ID + "_entity_basis_map u INNER JOIN " + LocationClosure.TABLE_NAME
+	        + " c ON c.ancestor_id = u.basis_id INNER JOIN " + DataFilterConstants.MODULE_ID
+	        + "_entity_basis_map p ON p.basis_id = c.descendant_id AND p.entity_type_code = " + TYPE_CODE_PATIENT
+	        + " AND p.basis_type_code = " + TYPE_CODE_LOCATION + " WHERE u.entity_id = ? AND u.entity_type_code = "
+	        + TYPE_CODE_USER + " AND u.basis_type_code = " + TYPE_CODE_LOCATION;
+	
+	public static final String PATIENT_LOCATION_ID_QUERY = "SELECT basis_id FROM " + DataFilterConstants.MODULE_ID
+	        + "_entity_basis_map WHERE entity_id = ? AND entity_type_code = " + TYPE_CODE_PATIENT
+	        + " AND basis_type_code = " + TYPE_CODE_LOCATION;
+	
+	public static final String ROLE_PRIVILEGE_QUERY = "SELECT DISTINCT privilege FROM role_privilege WHERE role IN (:"
+	        + PARAM_NAME_ROLES + ")";
+	
+	/**
+	 * The name of the full text index field holding the ids of the locations of the patient that owns
+	 * a record
+	 */
+	public static final String FULL_TEXT_FIELD_PATIENT_LOCATION_IDS = MODULE_ID + "_patientLocationIds";
 	
 	public static final String GP_LOCATION_BASED_FILTER_NAME_ENCOUNTER = LOCATION_BASED_FILTER_NAME_ENCOUNTER + DISABLED;
 	
@@ -152,6 +225,20 @@ public final class ImplConstants {
 	
 	public static final String GP_PAT_LOC_INTERCEPTOR_ENABLED = MODULE_ID + ".patientLocationLinkingInterceptor" + ENABLED;
 	
+	public static final String GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED = MODULE_ID + ".fullTextIndexedPatientLocations"
+	        + ENABLED;
+	
+	public static final String GP_PAT_LOC_BACKFILL_SOURCES = MODULE_ID + ".patientLocationBackfill.sources";
+	
+	public static final String PAT_LOC_SOURCE_ENCOUNTER = "encounter";
+	
+	public static final String PAT_LOC_SOURCE_VISIT = "visit";
+	
+	public static final String PAT_LOC_SOURCE_IDENTIFIER = "identifier";
+	
+	public static final String DEFAULT_PAT_LOC_BACKFILL_SOURCES = PAT_LOC_SOURCE_ENCOUNTER + "," + PAT_LOC_SOURCE_VISIT + ","
+	        + PAT_LOC_SOURCE_IDENTIFIER;
+	
 	public static final String ILLEGAL_RECORD_ACCESS_MESSAGE = "Illegal Record Access";
 	
 }
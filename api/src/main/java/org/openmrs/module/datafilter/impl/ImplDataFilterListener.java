@@ -20,6 +20,7 @@ import org.openmrs.Role;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.DataFilterContext;
 import org.openmrs.module.datafilter.DataFilterListener;
+import org.openmrs.module.datafilter.DeferredParameterValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -51,18 +52,6 @@ public class ImplDataFilterListener implements DataFilterListener {
 		if (filterContext.getFilterName().startsWith(ImplConstants.LOCATION_BASED_FILTER_NAME_PREFIX)
 		        || filterContext.getFilterName().equals(ImplConstants.LOCATION_FILTER_NAME)) {
 			
-			Collection<String> basisIds = new HashSet<>();
-			
-			if (Context.isAuthenticated()) {
-				basisIds.addAll(AccessUtil.getAssignedBasisIds(Location.class));
-			}
-			
-			if (basisIds.isEmpty()) {
-				//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
-				//in theory the query will match no records if the user isn't granted access to any basis
-				basisIds = Collections.singleton("-1");
-			}
-			
 			if (filterContext.getFilterName().equals(ImplConstants.LOCATION_BASED_FILTER_NAME_PROVIDER)) {
 				//If there is no authenticated user, no provider will be matched because we expect none with id -1 
 				Integer authenticatedPersonId = -1;
@@ -72,7 +61,12 @@ public class ImplDataFilterListener implements DataFilterListener {
 				filterContext.setParameter(ImplConstants.PARAM_NAME_AUTHENTICATED_PERSON_ID, authenticatedPersonId);
 			}
 			
-			filterContext.setParameter(ImplConstants.PARAM_NAME_BASIS_IDS, basisIds);
+			//Looking up the basis ids requires a DB call so it is deferred until a filtered class is queried
+			DeferredParameterValue basisIds = new DeferredParameterValue(ImplDataFilterListener::getLocationBasisIds);
+			filterContext.setDeferredParameter(ImplConstants.PARAM_NAME_BASIS_IDS, basisIds);
+			//Filters matching against the numeric id columns of the entity basis map take integer values
+			filterContext.setDeferredParameter(ImplConstants.PARAM_NAME_NUMERIC_BASIS_IDS,
+			    () -> ((Collection<String>) basisIds.get()).stream().map(Integer::valueOf).collect(Collectors.toSet()));
 			
 		} else if (filterContext.getFilterName().startsWith(ImplConstants.ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX)) {
 			Collection<String> roles = new HashSet<>();
@@ -83,32 +77,65 @@ public class ImplDataFilterListener implements DataFilterListener {
 			}
 			
 			filterContext.setParameter(ImplConstants.PARAM_NAME_ROLES, roles);
+			//The viewableTypes variants of the filters match against the encounter type ids viewable with the roles
+			filterContext.setDeferredParameter(ImplConstants.PARAM_NAME_VIEWABLE_ENC_TYPE_IDS,
+			    () -> getViewableEncounterTypeIds(roles));
 			
 		} else if (filterContext.getFilterName().startsWith(ImplConstants.PROGRAM_BASED_FILTER_NAME_PREFIX)) {
-			Collection<String> userProgramRoleNames = new HashSet<>();
-			Collection<String> allProgramRoleNames = AccessUtil.getAllProgramRoles();
-			
-			if (Context.isAuthenticated()) {
-				Collection<Role> userProgramRoles = Context.getAuthenticatedUser().getAllRoles().stream()
-				        .filter(r -> allProgramRoleNames.contains(r.getName())).collect(Collectors.toList());
+			DeferredParameterValue allProgramRoleNames = new DeferredParameterValue(() -> {
+				Collection<String> roleNames = AccessUtil.getAllProgramRoles();
+				if (roleNames.isEmpty()) {
+					//Avoid a 'select IN ()' which would be an invalid query, in theory we expect no role to match #####
+					roleNames.add("#####");
+				}
 				
-				userProgramRoleNames = userProgramRoles.stream().map(Role::getName).collect(Collectors.toSet());
-			}
+				return roleNames;
+			});
 			
-			if (userProgramRoleNames.isEmpty()) {
-				//Avoid a 'select IN ()' which would be an invalid query, in theory we expect no role to match #####
-				userProgramRoleNames.add("#####");
-			}
-			if (allProgramRoleNames.isEmpty()) {
-				//Avoid a 'select IN ()' which would be an invalid query, in theory we expect no role to match #####
-				allProgramRoleNames.add("#####");
-			}
-			
-			filterContext.setParameter(ImplConstants.PARAM_NAME_USER_PROG_ROLES, userProgramRoleNames);
-			filterContext.setParameter(ImplConstants.PARAM_NAME_ALL_PROG_ROlES, allProgramRoleNames);
+			filterContext.setDeferredParameter(ImplConstants.PARAM_NAME_USER_PROG_ROLES, () -> {
+				Collection<String> userProgramRoleNames = new HashSet<>();
+				if (Context.isAuthenticated()) {
+					Collection<String> programRoleNames = (Collection<String>) allProgramRoleNames.get();
+					userProgramRoleNames = Context.getAuthenticatedUser().getAllRoles().stream().map(Role::getName)
+					        .filter(programRoleNames::contains).collect(Collectors.toSet());
+				}
+				
+				if (userProgramRoleNames.isEmpty()) {
+					//Avoid a 'select IN ()' which would be an invalid query, in theory we expect no role to match #####
+					userProgramRoleNames.add("#####");
+				}
+				
+				return userProgramRoleNames;
+			});
+			filterContext.setDeferredParameter(ImplConstants.PARAM_NAME_ALL_PROG_ROlES, allProgramRoleNames);
 		}
 		
 		return true;
 	}
 	
+	private static Collection<Integer> getViewableEncounterTypeIds(Collection<String> roles) {
+		Collection<Integer> encounterTypeIds = AccessUtil.getViewableEncounterTypeIds(roles);
+		if (encounterTypeIds.isEmpty()) {
+			//Avoid a 'select IN ()' which would be an invalid query, ids are all > 0 so no encounter type matches -1
+			encounterTypeIds = Collections.singleton(-1);
+		}
+		
+		return encounterTypeIds;
+	}
+	
+	private static Collection<String> getLocationBasisIds() {
+		Collection<String> basisIds = new HashSet<>();
+		if (Context.isAuthenticated()) {
+			basisIds.addAll(AccessUtil.getAssignedBasisIds(Location.class));
+		}
+		
+		if (basisIds.isEmpty()) {
+			//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
+			//in theory the query will match no records if the user isn't granted access to any basis
+			basisIds = Collections.singleton("-1");
+		}
+		
+		return basisIds;
+	}
+	
 }
@@ -21,6 +21,8 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.DataFilterContext;
 import org.openmrs.module.datafilter.DataFilterListener;
 import org.openmrs.module.datafilter.FullTextDataFilterContext;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
+import org.openmrs.module.datafilter.IntHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -52,11 +54,24 @@ public class ImplFullTextDataFilterListener implements DataFilterListener {
 			return false;
 		}
 		
-		Collection<String> personIds = AccessUtil.getAccessiblePersonIds(Location.class);
+		if ("true".equalsIgnoreCase(GlobalPropertyCache.getValue(ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED))) {
+			//The locations of the patients are indexed so we only need to match the user's locations
+			Collection<String> basisIds = AccessUtil.getAssignedBasisIds(Location.class);
+			if (basisIds.isEmpty()) {
+				basisIds = Collections.singleton("-1");
+			}
+			
+			filterContext.setParameter(ImplConstants.PARAM_NAME_BASIS_IDS, basisIds);
+			
+			return true;
+		}
+		
+		IntHashSet personIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
 		if (personIds.isEmpty()) {
 			//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
 			//in theory the query will match no records if the user isn't granted access to any basis
-			personIds = Collections.singleton("-1");
+			personIds = new IntHashSet(1);
+			personIds.add(-1);
 		}
 		
 		filterContext.setParameter("field",
@@ -0,0 +1,139 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * An instance of this class represents a row in the location hierarchy closure table, there is a
+ * row for every location and each of its ancestors including the location itself with a depth of
+ * zero, this makes it possible to look up all the descendants of a set of locations with a single
+ * indexed query instead of traversing the location tree.
+ */
+@Entity
+@IdClass(LocationClosure.LocationClosureId.class)
+@Table(name = DataFilterConstants.MODULE_ID + "_location_closure", indexes = @Index(name = DataFilterConstants.MODULE_ID
+        + "_location_closure_descendant_index", columnList = "descendant_id, ancestor_id"))
+public class LocationClosure implements Serializable {
+	
+	public static final String TABLE_NAME = DataFilterConstants.MODULE_ID + "_location_closure";
+	
+	@Id
+	@Column(name = "ancestor_id", nullable = false, updatable = false)
+	private Integer ancestorId;
+	
+	@Id
+	@Column(name = "descendant_id", nullable = false, updatable = false)
+	private Integer descendantId;
+	
+	@Column(name = "depth", nullable = false, updatable = false)
+	private Integer depth;
+	
+	/**
+	 * Gets the ancestorId
+	 *
+	 * @return the ancestorId
+	 */
+	public Integer getAncestorId() {
+		return ancestorId;
+	}
+	
+	/**
+	 * Sets the ancestorId
+	 *
+	 * @param ancestorId the ancestorId to set
+	 */
+	public void setAncestorId(Integer ancestorId) {
+		this.ancestorId = ancestorId;
+	}
+	
+	/**
+	 * Gets the descendantId
+	 *
+	 * @return the descendantId
+	 */
+	public Integer getDescendantId() {
+		return descendantId;
+	}
+	
+	/**
+	 * Sets the descendantId
+	 *
+	 * @param descendantId the descendantId to set
+	 */
+	public void setDescendantId(Integer descendantId) {
+		this.descendantId = descendantId;
+	}
+	
+	/**
+	 * Gets the depth
+	 *
+	 * @return the depth
+	 */
+	public Integer getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * Sets the depth
+	 *
+	 * @param depth the depth to set
+	 */
+	public void setDepth(Integer depth) {
+		this.depth = depth;
+	}
+	
+	/**
+	 * Composite identifier of a {@link LocationClosure}
+	 */
+	public static class LocationClosureId implements Serializable {
+		
+		private Integer ancestorId;
+		
+		private Integer descendantId;
+		
+		public LocationClosureId() {
+		}
+		
+		public LocationClosureId(Integer ancestorId, Integer descendantId) {
+			this.ancestorId = ancestorId;
+			this.descendantId = descendantId;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof LocationClosureId)) {
+				return false;
+			}
+			LocationClosureId other = (LocationClosureId) o;
+			return Objects.equals(ancestorId, other.ancestorId) && Objects.equals(descendantId, other.descendantId);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(ancestorId, descendantId);
+		}
+		
+	}
+	
+}
@@ -10,24 +10,42 @@
 package org.openmrs.module.datafilter.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.lucene.queries.TermsFilter;
-import org.apache.lucene.search.CachingWrapperFilter;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.BytesRef;
 import org.hibernate.search.annotations.Factory;
+import org.openmrs.module.datafilter.IntHashSet;
 
 /**
  * Full text Filter that can be applied to patient records and any domain objects that represent
- * patient clinical data e.g. Visits, Encounters, Obs, Orders etc.
+ * patient clinical data e.g. Visits, Encounters, Obs, Orders etc. <br>
+ * <br>
+ * The filter is registered with the {@link org.hibernate.search.annotations.FilterCacheModeType}
+ * INSTANCE_AND_DOCIDSETRESULTS cache mode, hibernate search caches the filter instances keyed by
+ * their parameter values and the matching documents per index segment, so the terms are evaluated
+ * against a segment only once and new segments are evaluated as they are added. The patient ids
+ * are an {@link IntHashSet} compared by identity, the same instance is shared by all users granted
+ * access to the same bases and is replaced whenever their access changes so users with the same
+ * bases reuse the cached results and stale results are never matched. <br>
+ * <br>
+ * Alternatively, if the basis ids are set the filter matches the ids of the locations of the
+ * patients indexed by the {@link PatientLocationFieldBridge} instead, this way the number of terms
+ * is the number of locations the user is granted access to rather than the number of patients at
+ * those locations.
+ *
+ * @see org.openmrs.module.datafilter.impl.AccessUtil#getAccessiblePersonIdSet(Class)
+ * @see ImplConstants#GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED
  */
 public class PatientIdFullTextFilter {
 	
 	private String field;
 	
-	private Set<String> patientIds;
+	private IntHashSet patientIds;
+	
+	private Collection<String> basisIds;
 	
 	/**
 	 * Sets the field
@@ -43,18 +61,37 @@ public class PatientIdFullTextFilter {
 	 *
 	 * @param patientIds the patientIds to set
 	 */
-	public void setPatientIds(Set<String> patientIds) {
+	public void setPatientIds(IntHashSet patientIds) {
 		this.patientIds = patientIds;
 	}
 	
+	/**
+	 * Sets the basisIds
+	 *
+	 * @param basisIds the basisIds to set
+	 */
+	public void setBasisIds(Collection<String> basisIds) {
+		this.basisIds = basisIds;
+	}
+	
 	@Factory
 	public Filter getFilter() {
+		if (basisIds != null) {
+			List<BytesRef> byteRefs = new ArrayList(basisIds.size());
+			for (String id : basisIds) {
+				byteRefs.add(new BytesRef(id));
+			}
+			
+			return new TermsFilter(ImplConstants.FULL_TEXT_FIELD_PATIENT_LOCATION_IDS, byteRefs);
+		}
+		
 		List<BytesRef> byteRefs = new ArrayList(patientIds.size());
-		for (String id : patientIds) {
-			byteRefs.add(new BytesRef(id));
+		for (int id : patientIds.toArray()) {
+			byteRefs.add(new BytesRef(Integer.toString(id)));
 		}
 		
-		return new CachingWrapperFilter(new TermsFilter(field, byteRefs));
+		//Hibernate search takes care of caching the matching documents per index segment
+		return new TermsFilter(field, byteRefs);
 	}
 	
 }
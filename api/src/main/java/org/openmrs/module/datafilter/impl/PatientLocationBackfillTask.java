@@ -0,0 +1,116 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.scheduler.tasks.AbstractTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduled task that links all the existing patients that aren't mapped to any location to the
+ * locations of their records e.g. after a new install or a data migration, the patients are
+ * processed in batches each in its own transaction and the id of the last processed patient is saved
+ * in the lastPatientId task property after each batch so that the task resumes where it left off if
+ * it is stopped, clear the property to process all patients again. Scheduled tasks run as the daemon
+ * user so the filters are never applied. The batch size can be set via the batchSize task property.
+ *
+ * @see DataFilterService#backfillPatientLocations(int)
+ */
+public class PatientLocationBackfillTask extends AbstractTask {
+	
+	private static final Logger log = LoggerFactory.getLogger(PatientLocationBackfillTask.class);
+	
+	public static final String PROPERTY_BATCH_SIZE = "batchSize";
+	
+	public static final String PROPERTY_LAST_PATIENT_ID = "lastPatientId";
+	
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	private volatile boolean stopped;
+	
+	/**
+	 * @see AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (isExecuting) {
+			log.info("Patient location backfill is already running");
+			return;
+		}
+		
+		startExecuting();
+		stopped = false;
+		try {
+			int batchSize = getBatchSize();
+			DataFilterService service = Context.getService(DataFilterService.class);
+			long start = System.currentTimeMillis();
+			int batches = 0;
+			Integer lastPatientId = getLastPatientId();
+			Integer nextPatientId;
+			while (!stopped && (nextPatientId = service.backfillPatientLocations(lastPatientId, batchSize)) != null) {
+				lastPatientId = nextPatientId;
+				batches++;
+				saveLastPatientId(lastPatientId);
+				//Keep the session small since each batch loads new objects
+				Context.clearSession();
+				if (log.isDebugEnabled()) {
+					log.debug("Patient location backfill processed patients up to id " + lastPatientId);
+				}
+			}
+			
+			log.info("Patient location backfill processed " + batches + " batch(es) in "
+			        + (System.currentTimeMillis() - start) + "ms" + (stopped ? " before it was stopped" : ""));
+		}
+		finally {
+			stopExecuting();
+		}
+	}
+	
+	/**
+	 * @see AbstractTask#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		stopped = true;
+		super.shutdown();
+	}
+	
+	private Integer getLastPatientId() {
+		String lastPatientId = getTaskDefinition() != null ? getTaskDefinition().getProperty(PROPERTY_LAST_PATIENT_ID)
+		        : null;
+		return StringUtils.isNumeric(lastPatientId) ? Integer.valueOf(lastPatientId) : null;
+	}
+	
+	/**
+	 * The progress is stored in the task definition rather than a global property so that saving it
+	 * doesn't discard the cached module configuration after each batch.
+	 */
+	private void saveLastPatientId(Integer lastPatientId) {
+		TaskDefinition taskDefinition = getTaskDefinition();
+		if (taskDefinition != null) {
+			taskDefinition.setProperty(PROPERTY_LAST_PATIENT_ID, lastPatientId.toString());
+			Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+		}
+	}
+	
+	private int getBatchSize() {
+		String batchSize = getTaskDefinition() != null ? getTaskDefinition().getProperty(PROPERTY_BATCH_SIZE) : null;
+		if (StringUtils.isNumeric(batchSize) && Integer.parseInt(batchSize) > 0) {
+			return Integer.parseInt(batchSize);
+		}
+		
+		return DEFAULT_BATCH_SIZE;
+	}
+	
+}
@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.openmrs.module.datafilter.DataFilterBeanFactoryPostProcessor.SESSION_FACTORY_BEAN_NAME;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
+import org.springframework.orm.hibernate5.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Class bridge that adds the ids of the locations of the patient that owns a {@link PersonName},
+ * {@link PatientIdentifier} or {@link PersonAttribute} to its full text index document, this allows
+ * the location based full text filter to match the locations the user is granted access to instead
+ * of the ids of all the patients at those locations. Nothing is looked up unless the
+ * {@link ImplConstants#GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED} global property is set to true. The
+ * locations are looked up via JDBC on the connection of the current transaction if any so that the
+ * session isn't flushed while hibernate search is building the documents, otherwise e.g. for the
+ * mass indexer a pooled connection is used.
+ *
+ * @see DataFilterSearchMappingFactory
+ * @see PatientSearchIndexUpdater
+ */
+public class PatientLocationFieldBridge implements FieldBridge {
+	
+	/**
+	 * @see FieldBridge#set(String, Object, Document, LuceneOptions)
+	 */
+	@Override
+	public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+		Integer patientId = getPatientId(value);
+		if (patientId == null) {
+			return;
+		}
+		
+		for (Integer locationId : getLocationIds(patientId)) {
+			luceneOptions.addFieldToDocument(name, locationId.toString(), document);
+		}
+	}
+	
+	private Integer getPatientId(Object value) {
+		if (value instanceof PersonName) {
+			PersonName name = (PersonName) value;
+			return name.getPerson() != null ? name.getPerson().getPersonId() : null;
+		} else if (value instanceof PatientIdentifier) {
+			PatientIdentifier identifier = (PatientIdentifier) value;
+			return identifier.getPatient() != null ? identifier.getPatient().getPatientId() : null;
+		} else if (value instanceof PersonAttribute) {
+			PersonAttribute attribute = (PersonAttribute) value;
+			return attribute.getPerson() != null ? attribute.getPerson().getPersonId() : null;
+		}
+		
+		return null;
+	}
+	
+	private List<Integer> getLocationIds(Integer patientId) {
+		SessionFactory sessionFactory = Context.getRegisteredComponent(SESSION_FACTORY_BEAN_NAME, SessionFactory.class);
+		SessionHolder sessionHolder = (SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+		if (sessionHolder != null) {
+			if (!"true".equalsIgnoreCase(GlobalPropertyCache.getValue(ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED))) {
+				return Collections.emptyList();
+			}
+			
+			return sessionHolder.getSession().doReturningWork(connection -> getLocationIds(connection, patientId));
+		}
+		
+		//No session is bound to the mass indexer threads, borrow a pooled connection instead of opening a session
+		ConnectionProvider connectionProvider = sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+		        .getService(ConnectionProvider.class);
+		try {
+			Connection connection = connectionProvider.getConnection();
+			try {
+				if (!"true".equalsIgnoreCase(
+				    GlobalPropertyCache.getValue(ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED, connection))) {
+					return Collections.emptyList();
+				}
+				
+				return getLocationIds(connection, patientId);
+			}
+			finally {
+				connectionProvider.closeConnection(connection);
+			}
+		}
+		catch (SQLException e) {
+			throw new APIException("Failed to look up the locations of the patient with id: " + patientId, e);
+		}
+	}
+	
+	private List<Integer> getLocationIds(Connection connection, Integer patientId) throws SQLException {
+		List<Integer> locationIds = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement(ImplConstants.PATIENT_LOCATION_ID_QUERY)) {
+			statement.setInt(1, patientId);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					int locationId = resultSet.getInt(1);
+					if (!resultSet.wasNull()) {
+						locationIds.add(locationId);
+					}
+				}
+			}
+		}
+		
+		return locationIds;
+	}
+	
+}
@@ -0,0 +1,102 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.datafilter.DataFilterActivator;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the patient locations indexed by the {@link PatientLocationFieldBridge} up to date, the ids
+ * of the patients whose locations change in a transaction are collected and their records are
+ * re-indexed in a daemon thread after the transaction is committed, this is because the documents
+ * can be built by hibernate search before the changes to the mappings are written e.g. when a new
+ * patient is linked to a location. Nothing is done unless the
+ * {@link ImplConstants#GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED} global property is set to true.
+ */
+public final class PatientSearchIndexUpdater {
+	
+	private static final Logger log = LoggerFactory.getLogger(PatientSearchIndexUpdater.class);
+	
+	private static final Object RESOURCE_KEY = new Object();
+	
+	private PatientSearchIndexUpdater() {
+	}
+	
+	/**
+	 * Schedules the records of the patients with the specified ids to be re-indexed after the current
+	 * transaction is committed
+	 *
+	 * @param patientIds the ids of the patients whose locations changed
+	 */
+	public static void updateAfterCommit(Collection<Integer> patientIds) {
+		if (patientIds.isEmpty() || !TransactionSynchronizationManager.isSynchronizationActive() || !"true"
+		        .equalsIgnoreCase(GlobalPropertyCache.getValue(ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED))) {
+			return;
+		}
+		
+		Set<Integer> pendingPatientIds = (Set<Integer>) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+		if (pendingPatientIds == null) {
+			final Set<Integer> ids = new HashSet<>();
+			TransactionSynchronizationManager.bindResource(RESOURCE_KEY, ids);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCommit() {
+					update(ids);
+				}
+				
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+				}
+				
+			});
+			
+			pendingPatientIds = ids;
+		}
+		
+		pendingPatientIds.addAll(patientIds);
+	}
+	
+	private static void update(Set<Integer> patientIds) {
+		DaemonToken daemonToken = DataFilterActivator.getDaemonToken();
+		if (daemonToken == null) {
+			log.warn("The module is not started, skipping updating the search index of patients with ids: {}",
+			    patientIds);
+			return;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Updating the search index of " + patientIds.size() + " patient(s) whose locations changed");
+		}
+		
+		Daemon.runInDaemonThread(() -> {
+			try {
+				Context.getService(DataFilterService.class).updatePatientSearchIndex(patientIds);
+			}
+			catch (Exception e) {
+				log.error("Failed to update the search index of patients with ids: " + patientIds, e);
+			}
+		}, daemonToken);
+	}
+	
+}
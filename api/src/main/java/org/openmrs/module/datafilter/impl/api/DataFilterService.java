@@ -10,10 +10,12 @@
 package org.openmrs.module.datafilter.impl.api;
 
 import java.util.Collection;
+import java.util.Map;
 
 import org.openmrs.OpenmrsObject;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.ImplConstants;
 
 public interface DataFilterService extends OpenmrsService {
 	
@@ -49,6 +51,23 @@ public interface DataFilterService extends OpenmrsService {
 	 */
 	void revokeAccess(OpenmrsObject entity, Collection<OpenmrsObject> bases);
 	
+	/**
+	 * Grants each of the specified entities access to records associated to their respective bases,
+	 * this is intended for granting access in bulk e.g. when onboarding migrated patients, existing
+	 * mappings are skipped.
+	 *
+	 * @param entityAndBases a map of the entities to grant access and their bases
+	 */
+	void grantAccess(Map<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entityAndBases);
+	
+	/**
+	 * Revokes access to records associated to the respective bases from each of the specified
+	 * entities, this is intended for revoking access in bulk.
+	 *
+	 * @param entityAndBases a map of the entities from which to revoke access and their bases
+	 */
+	void revokeAccess(Map<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entityAndBases);
+	
 	/**
 	 * Checks whether the specified entity has access to the specified basis
 	 * 
@@ -86,4 +105,54 @@ public interface DataFilterService extends OpenmrsService {
 	 */
 	Collection<EntityBasisMap> getEntityBasisMapsByBasis(String entityClassName, OpenmrsObject basis);
 	
+	/**
+	 * Synchronizes the location hierarchy closure table with the location hierarchy, the closure table
+	 * is kept up to date whenever locations are saved or deleted via the API, this method is only
+	 * required when the location table is modified by other means e.g. via raw SQL.
+	 */
+	void rebuildLocationClosure();
+	
+	/**
+	 * Synchronizes the encounter visibility table used by the visibility variants of the encounter type
+	 * privilege based filters with the encounter table, the table is kept up to date whenever
+	 * encounters are saved or deleted via the API, this method is only required when the encounter
+	 * table is modified by other means e.g. via raw SQL.
+	 *
+	 * @return the number of inserted and deleted rows
+	 */
+	int rebuildEncounterVisibility();
+	
+	/**
+	 * Checks that the encounter visibility table is in sync with the encounter table
+	 *
+	 * @return the number of encounters with a missing or stale row plus the number of rows for
+	 *         encounters that don't exist, zero if the table is in sync
+	 */
+	long checkEncounterVisibility();
+	
+	/**
+	 * Links the next batch of patients that aren't mapped to any location to the locations derived
+	 * from the sources specified by the {@link ImplConstants#GP_PAT_LOC_BACKFILL_SOURCES} global
+	 * property, the sources are tried in order and a patient gets linked to all the distinct locations
+	 * of their records in the first source that has any. Patients without any location in all the
+	 * sources are skipped, callers pass the returned patient id to the next call to resume after it.
+	 *
+	 * @param afterPatientId the id of the last patient processed by the previous call, can be null
+	 * @param batchSize the maximum number of patients to process
+	 * @return the id of the last patient in the batch, null when there are no more patients to process
+	 */
+	Integer backfillPatientLocations(Integer afterPatientId, int batchSize);
+	
+	/**
+	 * Updates the full text index documents of the names, identifiers and attributes of the patients
+	 * with the specified ids so that they hold the current locations of the patients, this is only
+	 * required when the {@link ImplConstants#GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED} global property is
+	 * set to true, it is called automatically after a transaction that changes the locations of
+	 * patients is committed.
+	 *
+	 * @param patientIds the ids of the patients to match
+	 * @see org.openmrs.module.datafilter.impl.PatientSearchIndexUpdater
+	 */
+	void updatePatientSearchIndex(Collection<Integer> patientIds);
+	
 }
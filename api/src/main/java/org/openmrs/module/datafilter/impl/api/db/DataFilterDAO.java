@@ -10,6 +10,9 @@
 package org.openmrs.module.datafilter.impl.api.db;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
 
@@ -33,6 +36,44 @@ public interface DataFilterDAO {
 	 */
 	EntityBasisMap saveEntityBasisMap(EntityBasisMap entityBasisMap);
 	
+	/**
+	 * Saves the specified EntityBasisMap instances that don't already exist in the database, existing
+	 * mappings are looked up with a single query per batch of entities and the new ones are written
+	 * with JDBC batch inserts which bypass the hibernate session.
+	 *
+	 * @param entityBasisMaps the EntityBasisMap instances to save
+	 * @return the number of inserted rows
+	 */
+	int saveEntityBasisMaps(Collection<EntityBasisMap> entityBasisMaps);
+	
+	/**
+	 * Deletes the rows matching the specified EntityBasisMap instances from the database with JDBC batch
+	 * deletes which bypass the hibernate session, the instances are matched by their entity and basis
+	 * identifiers and types.
+	 *
+	 * @param entityBasisMaps the EntityBasisMap instances to delete
+	 * @return the number of deleted rows
+	 */
+	int deleteEntityBasisMaps(Collection<EntityBasisMap> entityBasisMaps);
+	
+	/**
+	 * Gets the ids of the non voided patients that aren't mapped to any location, ordered by patient id
+	 *
+	 * @param afterPatientId only patients with ids greater than this are returned
+	 * @param maxResults the maximum number of ids to return
+	 * @return a list of patient ids
+	 */
+	List<Integer> getPatientIdsWithoutLocation(Integer afterPatientId, int maxResults);
+	
+	/**
+	 * Gets the distinct locations of the specified patients' records in the specified source
+	 *
+	 * @param patientIds the patient ids to match
+	 * @param source the name of the source of the locations, one of encounter, visit or identifier
+	 * @return a map of patient ids to their location ids, patients without locations are left out
+	 */
+	Map<Integer, Set<Integer>> getPatientLocationIds(Collection<Integer> patientIds, String source);
+	
 	/**
 	 * Deletes the specified EntityBasisMap instance from the database
 	 * 
@@ -58,4 +99,67 @@ public interface DataFilterDAO {
 	 * @return A collection of {@link EntityBasisMap}s matching the specified criteria
 	 */
 	Collection<EntityBasisMap> getEntityBasisMapsByBasis(String entityType, String basisType, String basisIdentifier);
+	
+	/**
+	 * Adds the rows for the location with the specified id to the location closure table, the location
+	 * is expected to have no descendants.
+	 *
+	 * @param locationId the id of the location to add
+	 * @param parentLocationId the id of the parent location or null if it has none
+	 * @return true if the rows were added otherwise false if the closure rows for the parent location
+	 *         are missing in which case nothing is added
+	 */
+	boolean addToLocationClosure(Integer locationId, Integer parentLocationId);
+	
+	/**
+	 * Removes all the rows for the location with the specified id from the location closure table
+	 *
+	 * @param locationId the id of the location to remove
+	 */
+	void removeFromLocationClosure(Integer locationId);
+	
+	/**
+	 * Synchronizes the location closure table with the location hierarchy, only the rows that are
+	 * missing are inserted and those that are stale are removed.
+	 */
+	void rebuildLocationClosure();
+	
+	/**
+	 * Sets the encounter types of the encounters with the specified ids in the encounter visibility
+	 * table, rows are added for encounters that have none.
+	 *
+	 * @param encounterIdTypeMap a map of encounter ids to their encounter type ids
+	 */
+	void updateEncounterVisibility(Map<Integer, Integer> encounterIdTypeMap);
+	
+	/**
+	 * Removes the rows for the encounters with the specified ids from the encounter visibility table
+	 *
+	 * @param encounterIds the ids of the encounters to remove
+	 */
+	void removeFromEncounterVisibility(Collection<Integer> encounterIds);
+	
+	/**
+	 * Synchronizes the encounter visibility table with the encounter table, only the rows that are
+	 * missing are inserted and those that are stale are removed.
+	 *
+	 * @return the number of inserted and deleted rows
+	 */
+	int rebuildEncounterVisibility();
+	
+	/**
+	 * Gets the number of encounters that have no row in the encounter visibility table or whose row
+	 * holds a different encounter type plus the number of rows for encounters that don't exist.
+	 *
+	 * @return the number of inconsistent rows
+	 */
+	long getInconsistentEncounterVisibilityCount();
+	
+	/**
+	 * Updates the full text index documents of the names, identifiers and attributes of the patients
+	 * with the specified ids.
+	 *
+	 * @param patientIds the ids of the patients to match
+	 */
+	void updatePatientSearchIndex(Collection<Integer> patientIds);
 }
@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.api.db.hibernate.HibernateDataFilterDAO;
+
+/**
+ * Liquibase change that populates the integer entity_id and basis_id columns of the entity basis
+ * map table from the string identifiers, the identifiers are parsed here rather than cast in the
+ * database since there is no database agnostic way to skip those that aren't integers, such rows are
+ * set to {@link org.openmrs.module.datafilter.impl.ImplConstants#NON_NUMERIC_ID}. The rows are read
+ * and updated in batches by primary key so that the change scales to large tables.
+ */
+public class PopulateEntityBasisMapIdsChangeSet implements CustomTaskChange {
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	private int updateCount;
+	
+	/**
+	 * @see CustomTaskChange#execute(Database)
+	 */
+	@Override
+	public void execute(Database database) throws CustomChangeException {
+		JdbcConnection connection = (JdbcConnection) database.getConnection();
+		try {
+			updateCount = populateIds(connection, "entity") + populateIds(connection, "basis");
+		}
+		catch (DatabaseException | SQLException e) {
+			throw new CustomChangeException("Failed to populate the numeric ids of the entity basis maps", e);
+		}
+	}
+	
+	private int populateIds(JdbcConnection connection, String side) throws DatabaseException, SQLException {
+		final String idColumn = side + "_id";
+		final String selectQuery = "SELECT entity_basis_map_id, " + side + "_identifier, " + side + "_type FROM "
+		        + EntityBasisMap.TABLE_NAME + " WHERE " + idColumn + " IS NULL AND entity_basis_map_id > ?"
+		        + " ORDER BY entity_basis_map_id";
+		final String update = "UPDATE " + EntityBasisMap.TABLE_NAME + " SET " + idColumn
+		        + " = ? WHERE entity_basis_map_id = ?";
+		
+		int count = 0;
+		int lastMapId = 0;
+		while (true) {
+			List<int[]> rows = new ArrayList<>(BATCH_SIZE);
+			try (PreparedStatement select = connection.prepareStatement(selectQuery)) {
+				select.setMaxRows(BATCH_SIZE);
+				select.setInt(1, lastMapId);
+				try (ResultSet resultSet = select.executeQuery()) {
+					while (resultSet.next()) {
+						lastMapId = resultSet.getInt(1);
+						rows.add(new int[] {
+						        HibernateDataFilterDAO.toNumericId(resultSet.getString(3), resultSet.getString(2)), lastMapId });
+					}
+				}
+			}
+			
+			if (!rows.isEmpty()) {
+				try (PreparedStatement statement = connection.prepareStatement(update)) {
+					for (int[] row : rows) {
+						statement.setInt(1, row[0]);
+						statement.setInt(2, row[1]);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				
+				count += rows.size();
+			}
+			
+			if (rows.size() < BATCH_SIZE) {
+				return count;
+			}
+		}
+	}
+	
+	/**
+	 * @see CustomTaskChange#getConfirmationMessage()
+	 */
+	@Override
+	public String getConfirmationMessage() {
+		return "Populated the numeric ids of " + updateCount + " entity basis map(s)";
+	}
+	
+	/**
+	 * @see CustomTaskChange#setUp()
+	 */
+	@Override
+	public void setUp() throws SetupException {
+	}
+	
+	/**
+	 * @see CustomTaskChange#setFileOpener(ResourceAccessor)
+	 */
+	@Override
+	public void setFileOpener(ResourceAccessor resourceAccessor) {
+	}
+	
+	/**
+	 * @see CustomTaskChange#validate(Database)
+	 */
+	@Override
+	public ValidationErrors validate(Database database) {
+		return null;
+	}
+	
+}
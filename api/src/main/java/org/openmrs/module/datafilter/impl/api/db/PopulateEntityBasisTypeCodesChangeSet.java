@@ -0,0 +1,138 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.api.db.hibernate.HibernateDataFilterDAO;
+
+/**
+ * Liquibase change that populates the entity_type_code and basis_type_code columns of the entity
+ * basis map table, types that are missing from the entity basis type dictionary are added to it
+ * first so that every row gets a code.
+ */
+public class PopulateEntityBasisTypeCodesChangeSet implements CustomTaskChange {
+	
+	private static final String TYPE_TABLE_NAME = DataFilterConstants.MODULE_ID + "_entity_basis_type";
+	
+	private int updateCount;
+	
+	/**
+	 * @see CustomTaskChange#execute(Database)
+	 */
+	@Override
+	public void execute(Database database) throws CustomChangeException {
+		JdbcConnection connection = (JdbcConnection) database.getConnection();
+		try {
+			Map<String, Short> typeAndCodes = new HashMap<>();
+			try (Statement statement = connection.createStatement();
+			        ResultSet resultSet = statement.executeQuery("SELECT code, type_name FROM " + TYPE_TABLE_NAME)) {
+				while (resultSet.next()) {
+					typeAndCodes.put(resultSet.getString(2), resultSet.getShort(1));
+				}
+			}
+			
+			updateCount = populateCodes(connection, "entity", typeAndCodes)
+			        + populateCodes(connection, "basis", typeAndCodes);
+		}
+		catch (DatabaseException | SQLException e) {
+			throw new CustomChangeException("Failed to populate the type codes of the entity basis maps", e);
+		}
+	}
+	
+	private int populateCodes(JdbcConnection connection, String side, Map<String, Short> typeAndCodes)
+	        throws DatabaseException, SQLException {
+		
+		final String typeColumn = side + "_type";
+		final String codeColumn = side + "_type_code";
+		List<String> typeNames = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+		        ResultSet resultSet = statement.executeQuery("SELECT DISTINCT " + typeColumn + " FROM "
+		                + EntityBasisMap.TABLE_NAME + " WHERE " + codeColumn + " IS NULL")) {
+			while (resultSet.next()) {
+				typeNames.add(resultSet.getString(1));
+			}
+		}
+		
+		int count = 0;
+		for (String typeName : typeNames) {
+			Short code = typeAndCodes.get(typeName);
+			if (code == null) {
+				code = HibernateDataFilterDAO.getNewTypeCode(typeName,
+				    typeAndCodes.values().stream().max(Short::compare).orElse(null));
+				try (PreparedStatement statement = connection
+				        .prepareStatement("INSERT INTO " + TYPE_TABLE_NAME + " (code, type_name) VALUES (?, ?)")) {
+					statement.setShort(1, code);
+					statement.setString(2, typeName);
+					statement.executeUpdate();
+				}
+				
+				typeAndCodes.put(typeName, code);
+			}
+			
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + EntityBasisMap.TABLE_NAME + " SET "
+			        + codeColumn + " = ? WHERE " + typeColumn + " = ? AND " + codeColumn + " IS NULL")) {
+				statement.setShort(1, code);
+				statement.setString(2, typeName);
+				count += statement.executeUpdate();
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @see CustomTaskChange#getConfirmationMessage()
+	 */
+	@Override
+	public String getConfirmationMessage() {
+		return "Populated the type codes of " + updateCount + " entity basis map(s)";
+	}
+	
+	/**
+	 * @see CustomTaskChange#setUp()
+	 */
+	@Override
+	public void setUp() throws SetupException {
+	}
+	
+	/**
+	 * @see CustomTaskChange#setFileOpener(ResourceAccessor)
+	 */
+	@Override
+	public void setFileOpener(ResourceAccessor resourceAccessor) {
+	}
+	
+	/**
+	 * @see CustomTaskChange#validate(Database)
+	 */
+	@Override
+	public ValidationErrors validate(Database database) {
+		return null;
+	}
+	
+}
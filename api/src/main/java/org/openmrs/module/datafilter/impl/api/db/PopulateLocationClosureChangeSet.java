@@ -0,0 +1,117 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.openmrs.module.datafilter.impl.LocationClosure;
+import org.openmrs.module.datafilter.impl.api.db.hibernate.HibernateDataFilterDAO;
+
+/**
+ * Liquibase change that populates the location closure table from the existing location hierarchy,
+ * the table is then kept up to date as locations are saved or deleted via the API.
+ */
+public class PopulateLocationClosureChangeSet implements CustomTaskChange {
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	private int insertCount;
+	
+	/**
+	 * @see CustomTaskChange#execute(Database)
+	 */
+	@Override
+	public void execute(Database database) throws CustomChangeException {
+		JdbcConnection connection = (JdbcConnection) database.getConnection();
+		try {
+			Map<Integer, Integer> childParentMap = new HashMap<>();
+			try (Statement statement = connection.createStatement();
+			        ResultSet resultSet = statement.executeQuery("SELECT location_id, parent_location FROM location")) {
+				while (resultSet.next()) {
+					int parentId = resultSet.getInt(2);
+					childParentMap.put(resultSet.getInt(1), resultSet.wasNull() ? null : parentId);
+				}
+			}
+			
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("DELETE FROM " + LocationClosure.TABLE_NAME);
+			}
+			
+			List<int[]> rows = HibernateDataFilterDAO.getLocationClosureRows(childParentMap);
+			try (PreparedStatement statement = connection.prepareStatement(
+			    "INSERT INTO " + LocationClosure.TABLE_NAME + " (ancestor_id, descendant_id, depth) VALUES (?, ?, ?)")) {
+				int count = 0;
+				for (int[] row : rows) {
+					statement.setInt(1, row[0]);
+					statement.setInt(2, row[1]);
+					statement.setInt(3, row[2]);
+					statement.addBatch();
+					if (++count % BATCH_SIZE == 0) {
+						statement.executeBatch();
+					}
+				}
+				
+				if (count % BATCH_SIZE != 0) {
+					statement.executeBatch();
+				}
+			}
+			
+			insertCount = rows.size();
+		}
+		catch (DatabaseException | SQLException e) {
+			throw new CustomChangeException("Failed to populate the location closure table", e);
+		}
+	}
+	
+	/**
+	 * @see CustomTaskChange#getConfirmationMessage()
+	 */
+	@Override
+	public String getConfirmationMessage() {
+		return "Inserted " + insertCount + " location closure row(s)";
+	}
+	
+	/**
+	 * @see CustomTaskChange#setUp()
+	 */
+	@Override
+	public void setUp() throws SetupException {
+	}
+	
+	/**
+	 * @see CustomTaskChange#setFileOpener(ResourceAccessor)
+	 */
+	@Override
+	public void setFileOpener(ResourceAccessor resourceAccessor) {
+	}
+	
+	/**
+	 * @see CustomTaskChange#validate(Database)
+	 */
+	@Override
+	public ValidationErrors validate(Database database) {
+		return null;
+	}
+	
+}
@@ -0,0 +1,221 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Objects;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.module.datafilter.impl.AccessUtil;
+import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.PatientSearchIndexUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * This interceptor clears the cached access data in {@link AccessUtil} and in turn the cached filter
+ * activation plans whenever an entity basis mapping is created or deleted, when the location
+ * hierarchy changes or when roles or the roles of users change, changes to the mappings of patients
+ * only clear the cached person ids while changes to encounter types only clear the cached view
+ * privileges. The cache is cleared immediately and again after the transaction completes so that
+ * values loaded by other threads before the changes are committed don't linger in the cache.
+ */
+@Component("accessCacheInterceptor")
+public class AccessCacheInterceptor extends EmptyInterceptor {
+	
+	private static final Logger log = LoggerFactory.getLogger(AccessCacheInterceptor.class);
+	
+	private static final String PARENT_LOCATION_PROPERTY = "parentLocation";
+	
+	private static final String ROLES_COLLECTION_ROLE = User.class.getName() + ".roles";
+	
+	/**
+	 * Holds true if only the cached person ids need to be cleared after the transaction completes and
+	 * false if all the cached access data needs to be cleared.
+	 */
+	private static ThreadLocal<Boolean> evictOnCompletionHolder = new ThreadLocal<>();
+	
+	/**
+	 * Holds true if the cached encounter type view privileges need to be cleared after the transaction
+	 * completes
+	 */
+	private static ThreadLocal<Boolean> evictViewPrivilegesOnCompletionHolder = new ThreadLocal<>();
+	
+	/**
+	 * @see EmptyInterceptor#onSave(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof EntityBasisMap) {
+			evict((EntityBasisMap) entity);
+		} else if (entity instanceof Location && ((Location) entity).getParentLocation() != null) {
+			evict();
+		} else if (entity instanceof Role) {
+			evict();
+		} else if (entity instanceof EncounterType) {
+			evictViewPrivileges();
+		}
+		
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		
+		if (entity instanceof Location && previousState != null) {
+			int index = ArrayUtils.indexOf(propertyNames, PARENT_LOCATION_PROPERTY);
+			if (index > -1 && !Objects.equals(currentState[index], previousState[index])) {
+				evict();
+			}
+		} else if (entity instanceof Role) {
+			evict();
+		} else if (entity instanceof EncounterType) {
+			evictViewPrivileges();
+		}
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof EntityBasisMap) {
+			evict((EntityBasisMap) entity);
+		} else if (entity instanceof Location || entity instanceof Role) {
+			evict();
+		} else if (entity instanceof EncounterType) {
+			evictViewPrivileges();
+		}
+		
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionRecreate(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionRecreate(Object collection, Serializable key) {
+		onCollectionChange(collection);
+		super.onCollectionRecreate(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionUpdate(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		onCollectionChange(collection);
+		super.onCollectionUpdate(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionRemove(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		onCollectionChange(collection);
+		super.onCollectionRemove(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		if (evictViewPrivilegesOnCompletionHolder.get() != null) {
+			evictViewPrivilegesOnCompletionHolder.remove();
+			AccessUtil.clearViewPrivilegeCache();
+		}
+		
+		Boolean personIdsOnly = evictOnCompletionHolder.get();
+		if (personIdsOnly != null) {
+			evictOnCompletionHolder.remove();
+			if (personIdsOnly) {
+				AccessUtil.clearPersonIdCache();
+			} else {
+				AccessUtil.clearCache();
+			}
+		}
+	}
+	
+	/**
+	 * Mappings of patients to their bases only affect the cached person ids and the indexed locations
+	 * of the patients while other mappings affect the cached basis ids and in turn the person ids.
+	 */
+	private void evict(EntityBasisMap map) {
+		if (Patient.class.getName().equals(map.getEntityType())) {
+			if (log.isDebugEnabled()) {
+				log.debug("Detected changes to patient basis mappings, clearing cached person ids");
+			}
+			
+			AccessUtil.clearPersonIdCache();
+			if (Location.class.getName().equals(map.getBasisType())) {
+				PatientSearchIndexUpdater.updateAfterCommit(Collections.singleton(Integer.valueOf(map.getEntityIdentifier())));
+			}
+			
+			if (evictOnCompletionHolder.get() == null) {
+				evictOnCompletionHolder.set(true);
+			}
+		} else {
+			evict();
+		}
+	}
+	
+	/**
+	 * The roles of a user and the privileges and parent roles of a role determine the filters to enable
+	 * for a user and their parameter values.
+	 */
+	private void onCollectionChange(Object collection) {
+		if (collection instanceof PersistentCollection) {
+			PersistentCollection persistentCollection = (PersistentCollection) collection;
+			Object owner = persistentCollection.getOwner();
+			if ((owner instanceof User && ROLES_COLLECTION_ROLE.equals(persistentCollection.getRole()))
+			        || owner instanceof Role) {
+				evict();
+			}
+		}
+	}
+	
+	private void evictViewPrivileges() {
+		if (log.isDebugEnabled()) {
+			log.debug("Detected changes to encounter types, clearing cached view privileges");
+		}
+		
+		AccessUtil.clearViewPrivilegeCache();
+		evictViewPrivilegesOnCompletionHolder.set(true);
+	}
+	
+	private void evict() {
+		if (log.isDebugEnabled()) {
+			log.debug("Detected changes to entity basis mappings, locations or roles, clearing cached access data");
+		}
+		
+		AccessUtil.clearCache();
+		evictOnCompletionHolder.set(false);
+	}
+	
+}
@@ -28,12 +28,15 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Daemon;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 import org.openmrs.module.datafilter.Util;
 import org.openmrs.module.datafilter.impl.AccessUtil;
 import org.openmrs.module.datafilter.impl.ImplConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * This interceptor provides a safety net to catch any cases where an entity that the authenticated
@@ -52,6 +55,8 @@ public class AccessInterceptor extends EmptyInterceptor {
 	
 	protected static final String SEARCH_LOADER_THREAD_NAME_PREFIX = "Hibernate Search: entityloader";
 	
+	private static final Object ENCOUNTER_TYPE_MEMO_KEY = new Object();
+	
 	static {
 		locationBasedClassAndFiltersMap = new HashMap();
 		locationBasedClassAndFiltersMap.put(Visit.class, ImplConstants.LOCATION_BASED_FILTER_NAME_VISIT);
@@ -115,9 +120,7 @@ public class AccessInterceptor extends EmptyInterceptor {
 				//should reject vs accept when loading a filtered type, some sort of callback and pass them the
 				//entity and state.
 				if (filteredByLoc || filteredByEnc) {
-					//Hibernate will flush any changes in the current session before querying the DB when fetching
-					//the GP value below and we end up in this method again, therefore we need to disable auto flush
-					String strictModeStr = InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_RUN_IN_STRICT_MODE);
+					String strictModeStr = GlobalPropertyCache.getValue(ImplConstants.GP_RUN_IN_STRICT_MODE);
 					if ("true".equalsIgnoreCase(strictModeStr)) {
 						User user = Context.getAuthenticatedUser();
 						if (filteredByLoc) {
@@ -127,7 +130,7 @@ public class AccessInterceptor extends EmptyInterceptor {
 						
 						if (filteredByEnc) {
 							String filterName = encTypeBasedClassAndFiltersMap.get(entity.getClass());
-							checkIfHasEncounterTypeBasedAccess(entity, state, propertyNames, user, filterName);
+							checkIfHasEncounterTypeBasedAccess(entity, id, state, propertyNames, user, filterName);
 						}
 					} else {
 						if (log.isTraceEnabled()) {
@@ -141,26 +144,47 @@ public class AccessInterceptor extends EmptyInterceptor {
 		return super.onLoad(entity, id, state, propertyNames, types);
 	}
 	
+	/**
+	 * Discards the memoized encounter type of an encounter that is updated since its type could have
+	 * been changed.
+	 *
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		
+		if (entity instanceof Encounter && id != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+			Map<Integer, Integer> encounterTypeMemo = (Map<Integer, Integer>) TransactionSynchronizationManager
+			        .getResource(ENCOUNTER_TYPE_MEMO_KEY);
+			if (encounterTypeMemo != null) {
+				encounterTypeMemo.remove(id);
+			}
+		}
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
 	private void checkIfHasLocationBasedAccess(Object entity, Serializable id, Object[] state, String[] propertyNames,
 	        User user, String filterName) {
 		
 		boolean check = !Util.skipFilter(filterName);
 		if (check) {
-			Object personId = id;
+			Integer personId = (Integer) id;
 			if (entity instanceof Visit || entity instanceof Encounter || entity instanceof Obs) {
 				final String personPropertyName = entity instanceof Obs ? "person" : "patient";
 				int patientIndex = ArrayUtils.indexOf(propertyNames, personPropertyName);
 				personId = ((Person) state[patientIndex]).getPersonId();
 			}
 			
-			if (user == null || !AccessUtil.getAccessiblePersonIds(Location.class).contains(personId.toString())) {
+			if (user == null || !AccessUtil.getAccessiblePersonIdSet(Location.class).contains(personId)) {
 				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
 			}
 		}
 	}
 	
-	private void checkIfHasEncounterTypeBasedAccess(Object entity, Object[] state, String[] propertyNames, User user,
-	        String filterName) {
+	private void checkIfHasEncounterTypeBasedAccess(Object entity, Serializable id, Object[] state,
+	        String[] propertyNames, User user, String filterName) {
 		
 		boolean check = !Util.skipFilter(filterName);
 		if (check) {
@@ -169,6 +193,10 @@ public class AccessInterceptor extends EmptyInterceptor {
 			if (entity instanceof Encounter) {
 				int encounterTypeIndex = ArrayUtils.indexOf(propertyNames, "encounterType");
 				encounterTypeId = ((EncounterType) state[encounterTypeIndex]).getEncounterTypeId();
+				Map<Integer, Integer> encounterTypeMemo = getEncounterTypeMemo();
+				if (encounterTypeMemo != null && id != null) {
+					encounterTypeMemo.put((Integer) id, encounterTypeId);
+				}
 			} else if (entity instanceof EncounterType) {
 				encounterTypeId = ((EncounterType) entity).getEncounterTypeId();
 			} else {
@@ -182,8 +210,18 @@ public class AccessInterceptor extends EmptyInterceptor {
 						encounterTypeId = encounter.getEncounterType().getEncounterTypeId();
 					} else {
 						//If it's an obs that's getting loaded, encounter.encounterType could be
-						//null so fetch the encounter type id from the database
-						encounterTypeId = AccessUtil.getEncounterTypeId(encounter.getEncounterId());
+						//null so fetch the encounter type id from the database unless it was already seen
+						Map<Integer, Integer> encounterTypeMemo = getEncounterTypeMemo();
+						if (encounterTypeMemo != null) {
+							encounterTypeId = encounterTypeMemo.get(encounter.getEncounterId());
+						}
+						
+						if (encounterTypeId == null) {
+							encounterTypeId = AccessUtil.getEncounterTypeId(encounter.getEncounterId());
+							if (encounterTypeMemo != null) {
+								encounterTypeMemo.put(encounter.getEncounterId(), encounterTypeId);
+							}
+						}
 					}
 				}
 			}
@@ -199,4 +237,36 @@ public class AccessInterceptor extends EmptyInterceptor {
 		}
 	}
 	
+	/**
+	 * Gets the encounter ids and encounter type ids of the encounters seen in the current transaction,
+	 * this saves a query for each obs whose encounter's type isn't yet loaded e.g. when loading all the
+	 * obs of a visit. In OpenMRS a session is used for a single transaction at a time, the memo is
+	 * discarded when the transaction completes and the entry of an encounter is discarded when it is
+	 * updated.
+	 *
+	 * @return the map of encounter ids and encounter type ids or null if no transaction is active
+	 */
+	private Map<Integer, Integer> getEncounterTypeMemo() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		
+		Map<Integer, Integer> memo = (Map<Integer, Integer>) TransactionSynchronizationManager
+		        .getResource(ENCOUNTER_TYPE_MEMO_KEY);
+		if (memo == null) {
+			memo = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(ENCOUNTER_TYPE_MEMO_KEY, memo);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(ENCOUNTER_TYPE_MEMO_KEY);
+				}
+				
+			});
+		}
+		
+		return memo;
+	}
+	
 }
@@ -0,0 +1,156 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.EncounterVisibility;
+import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * This interceptor keeps the {@link EncounterVisibility} table in sync with the encounter table,
+ * rows for new encounters are added, rows for deleted encounters are removed and rows are updated
+ * when the encounter type of an encounter changes. The changes are applied right after the session
+ * is flushed so that the filters see them in the same transaction.
+ */
+@Component("encounterVisibilityInterceptor")
+public class EncounterVisibilityInterceptor extends EmptyInterceptor {
+	
+	private static final Logger log = LoggerFactory.getLogger(EncounterVisibilityInterceptor.class);
+	
+	private static final String ENCOUNTER_TYPE_PROPERTY = "encounterType";
+	
+	private static ThreadLocal<VisibilityChanges> changesHolder = new ThreadLocal<>();
+	
+	/**
+	 * @see EmptyInterceptor#onSave(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Encounter) {
+			getChanges().changedEncounters.add((Encounter) entity);
+		}
+		
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		
+		if (entity instanceof Encounter && previousState != null) {
+			int index = ArrayUtils.indexOf(propertyNames, ENCOUNTER_TYPE_PROPERTY);
+			if (index > -1 && !Objects.equals(currentState[index], previousState[index])) {
+				getChanges().changedEncounters.add((Encounter) entity);
+			}
+		}
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Encounter && id != null) {
+			getChanges().deletedEncounterIds.add((Integer) id);
+		}
+		
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#postFlush(Iterator)
+	 */
+	@Override
+	public void postFlush(Iterator entities) {
+		VisibilityChanges changes = changesHolder.get();
+		if (changes == null) {
+			return;
+		}
+		
+		changesHolder.remove();
+		Map<Integer, Integer> encounterIdTypeMap = new HashMap<>();
+		for (Encounter encounter : changes.changedEncounters) {
+			if (encounter.getId() == null || encounter.getEncounterType() == null
+			        || changes.deletedEncounterIds.contains(encounter.getId())) {
+				continue;
+			}
+			
+			encounterIdTypeMap.put(encounter.getId(), encounter.getEncounterType().getId());
+		}
+		
+		DataFilterDAO dao = Context.getRegisteredComponents(DataFilterDAO.class).get(0);
+		try {
+			if (!encounterIdTypeMap.isEmpty()) {
+				dao.updateEncounterVisibility(encounterIdTypeMap);
+			}
+			
+			if (!changes.deletedEncounterIds.isEmpty()) {
+				dao.removeFromEncounterVisibility(changes.deletedEncounterIds);
+			}
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to update the encounter visibility table", e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		if (changesHolder.get() != null) {
+			changesHolder.remove();
+		}
+	}
+	
+	private VisibilityChanges getChanges() {
+		VisibilityChanges changes = changesHolder.get();
+		if (changes == null) {
+			changes = new VisibilityChanges();
+			changesHolder.set(changes);
+		}
+		
+		return changes;
+	}
+	
+	private static class VisibilityChanges {
+		
+		//Tracked by identity since the ids of new encounters are only assigned when they are inserted
+		private Set<Encounter> changedEncounters = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		private Set<Integer> deletedEncounterIds = new HashSet<>();
+		
+	}
+	
+}
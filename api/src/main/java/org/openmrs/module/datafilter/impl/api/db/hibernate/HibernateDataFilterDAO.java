@@ -9,22 +9,146 @@
  */
 package org.openmrs.module.datafilter.impl.api.db.hibernate;
 
+import javax.persistence.PersistenceException;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.query.Query;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Privilege;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.EncounterVisibility;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.EntityBasisType;
+import org.openmrs.module.datafilter.impl.ImplConstants;
+import org.openmrs.module.datafilter.impl.LocationClosure;
 import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class HibernateDataFilterDAO implements DataFilterDAO {
 	
+	private static final Logger log = LoggerFactory.getLogger(HibernateDataFilterDAO.class);
+	
+	private static final String CLOSURE_INSERT = "INSERT INTO " + LocationClosure.TABLE_NAME
+	        + " (ancestor_id, descendant_id, depth) VALUES (?, ?, ?)";
+	
+	private static final String CLOSURE_DELETE = "DELETE FROM " + LocationClosure.TABLE_NAME
+	        + " WHERE ancestor_id = ? AND descendant_id = ?";
+	
+	private static final String VISIBILITY_INSERT = "INSERT INTO " + EncounterVisibility.TABLE_NAME
+	        + " (encounter_id, encounter_type) VALUES (?, ?)";
+	
+	private static final String VISIBILITY_DELETE = "DELETE FROM " + EncounterVisibility.TABLE_NAME
+	        + " WHERE encounter_id = ?";
+	
+	private static final String STALE_VISIBILITY_DELETE = "DELETE FROM " + EncounterVisibility.TABLE_NAME
+	        + " WHERE NOT EXISTS (SELECT 1 FROM encounter e WHERE e.encounter_id = " + EncounterVisibility.TABLE_NAME
+	        + ".encounter_id AND e.encounter_type = " + EncounterVisibility.TABLE_NAME + ".encounter_type)";
+	
+	private static final String MISSING_VISIBILITY_INSERT = "INSERT INTO " + EncounterVisibility.TABLE_NAME
+	        + " (encounter_id, encounter_type) SELECT e.encounter_id, e.encounter_type FROM encounter e WHERE NOT EXISTS"
+	        + " (SELECT 1 FROM " + EncounterVisibility.TABLE_NAME + " v WHERE v.encounter_id = e.encounter_id)";
+	
+	private static final String MISSING_VISIBILITY_COUNT_QUERY = "SELECT COUNT(*) FROM encounter e LEFT JOIN "
+	        + EncounterVisibility.TABLE_NAME + " v ON v.encounter_id = e.encounter_id WHERE v.encounter_id IS NULL"
+	        + " OR v.encounter_type <> e.encounter_type";
+	
+	private static final String ORPHAN_VISIBILITY_COUNT_QUERY = "SELECT COUNT(*) FROM " + EncounterVisibility.TABLE_NAME
+	        + " v WHERE NOT EXISTS (SELECT 1 FROM encounter e WHERE e.encounter_id = v.encounter_id)";
+	
+	private static final String ENTITY_BASIS_MAP_INSERT = "INSERT INTO " + EntityBasisMap.TABLE_NAME
+	        + " (entity_identifier, entity_type, basis_identifier, basis_type, entity_id, basis_id, entity_type_code,"
+	        + " basis_type_code, creator, date_created, uuid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	private static final String ENTITY_BASIS_MAP_DELETE = "DELETE FROM " + EntityBasisMap.TABLE_NAME
+	        + " WHERE entity_identifier = ? AND entity_type = ? AND basis_identifier = ? AND basis_type = ?";
+	
+	private static final String UNMAPPED_PATIENT_QUERY = "SELECT p.patient_id FROM patient p WHERE p.patient_id > :afterId"
+	        + " AND p.voided = :voided AND NOT EXISTS (SELECT 1 FROM " + EntityBasisMap.TABLE_NAME + " m WHERE m.entity_id ="
+	        + " p.patient_id AND m.entity_type_code = " + ImplConstants.TYPE_CODE_PATIENT + " AND m.basis_type_code = "
+	        + ImplConstants.TYPE_CODE_LOCATION + ") ORDER BY p.patient_id";
+	
+	/**
+	 * Maps the names of the sources of patient locations to the tables holding them, each table has
+	 * patient_id, location_id and voided columns
+	 */
+	private static final Map<String, String> PATIENT_LOCATION_SOURCE_TABLES;
+	
+	static {
+		Map<String, String> sourceTables = new HashMap<>();
+		sourceTables.put(ImplConstants.PAT_LOC_SOURCE_ENCOUNTER, "encounter");
+		sourceTables.put(ImplConstants.PAT_LOC_SOURCE_VISIT, "visit");
+		sourceTables.put(ImplConstants.PAT_LOC_SOURCE_IDENTIFIER, "patient_identifier");
+		PATIENT_LOCATION_SOURCE_TABLES = Collections.unmodifiableMap(sourceTables);
+	}
+	
+	/**
+	 * The indexed classes mapped with the {@link org.openmrs.module.datafilter.impl.PatientLocationFieldBridge}
+	 * and the paths to their patient ids
+	 */
+	private static final Map<Class<?>, String> PATIENT_INDEXED_TYPES;
+	
+	static {
+		Map<Class<?>, String> types = new LinkedHashMap<>();
+		types.put(PersonName.class, "person.personId");
+		types.put(PatientIdentifier.class, "patient.patientId");
+		types.put(PersonAttribute.class, "person.personId");
+		PATIENT_INDEXED_TYPES = Collections.unmodifiableMap(types);
+	}
+	
+	/**
+	 * The maximum number of values in an IN clause and statements in a JDBC batch
+	 */
+	private static final int BATCH_SIZE = 1000;
+	
+	/**
+	 * Entity and basis types whose instances are identified by their names instead of their ids
+	 */
+	public static final List<String> NAMED_TYPES = Arrays.asList(Role.class.getName(), Privilege.class.getName());
+	
+	/**
+	 * Caches the codes of the types known to be in the {@link EntityBasisType} dictionary, codes
+	 * never change once assigned and are committed as soon as they are assigned
+	 */
+	private final Map<String, Short> typeCodes = new ConcurrentHashMap<>();
+	
+	private static final String KEY_SEPARATOR = "\n";
+	
+	/**
+	 * The maximum number of times to try adding a type to the {@link EntityBasisType} dictionary
+	 */
+	private static final int MAX_ADD_TYPE_ATTEMPTS = 5;
+	
 	private SessionFactory sessionFactory;
 	
 	/**
@@ -57,10 +181,290 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 	 */
 	@Override
 	public EntityBasisMap saveEntityBasisMap(EntityBasisMap entityBasisMap) {
+		if (entityBasisMap.getEntityId() == null) {
+			entityBasisMap.setEntityId(toNumericId(entityBasisMap.getEntityType(), entityBasisMap.getEntityIdentifier()));
+		}
+		if (entityBasisMap.getBasisId() == null) {
+			entityBasisMap.setBasisId(toNumericId(entityBasisMap.getBasisType(), entityBasisMap.getBasisIdentifier()));
+		}
+		if (entityBasisMap.getEntityTypeCode() == null) {
+			entityBasisMap.setEntityTypeCode(getTypeCode(entityBasisMap.getEntityType(), true));
+		}
+		if (entityBasisMap.getBasisTypeCode() == null) {
+			entityBasisMap.setBasisTypeCode(getTypeCode(entityBasisMap.getBasisType(), true));
+		}
+		
 		sessionFactory.getCurrentSession().save(entityBasisMap);
 		return entityBasisMap;
 	}
 	
+	/**
+	 * @see DataFilterDAO#saveEntityBasisMaps(Collection)
+	 */
+	@Override
+	public int saveEntityBasisMaps(Collection<EntityBasisMap> entityBasisMaps) {
+		Session session = sessionFactory.getCurrentSession();
+		//Ensure any pending changes are visible to the queries and statements below
+		session.flush();
+		
+		Map<String, EntityBasisMap> keyAndNewMaps = new LinkedHashMap<>();
+		for (EntityBasisMap map : entityBasisMaps) {
+			keyAndNewMaps.putIfAbsent(toKey(map.getEntityIdentifier(), map.getBasisIdentifier()) + KEY_SEPARATOR
+			        + toKey(map.getEntityType(), map.getBasisType()),
+			    map);
+		}
+		
+		Map<String, List<EntityBasisMap>> typesAndMaps = keyAndNewMaps.values().stream()
+		        .collect(Collectors.groupingBy(m -> toKey(m.getEntityType(), m.getBasisType())));
+		for (List<EntityBasisMap> maps : typesAndMaps.values()) {
+			final String entityType = maps.get(0).getEntityType();
+			final String basisType = maps.get(0).getBasisType();
+			final String typesKey = toKey(entityType, basisType);
+			List<String> entityIds = maps.stream().map(EntityBasisMap::getEntityIdentifier).distinct()
+			        .collect(Collectors.toList());
+			Set<String> basisIds = maps.stream().map(EntityBasisMap::getBasisIdentifier).collect(Collectors.toSet());
+			//The basis ids are only matched in memory if there are too many of them for an IN clause
+			final boolean filterOnBasisIds = basisIds.size() <= BATCH_SIZE;
+			for (int i = 0; i < entityIds.size(); i += BATCH_SIZE) {
+				Query<Object[]> query = session.createQuery("SELECT m.entityIdentifier, m.basisIdentifier FROM "
+				        + EntityBasisMap.class.getSimpleName() + " m WHERE m.entityType = :entityType AND m.basisType = "
+				        + ":basisType AND m.entityIdentifier IN (:entityIds)"
+				        + (filterOnBasisIds ? " AND m.basisIdentifier IN (:basisIds)" : ""),
+				    Object[].class);
+				query.setParameter("entityType", entityType).setParameter("basisType", basisType)
+				        .setParameterList("entityIds", entityIds.subList(i, Math.min(i + BATCH_SIZE, entityIds.size())));
+				if (filterOnBasisIds) {
+					query.setParameterList("basisIds", basisIds);
+				}
+				
+				for (Object[] row : query.list()) {
+					keyAndNewMaps.remove(toKey((String) row[0], (String) row[1]) + KEY_SEPARATOR + typesKey);
+				}
+			}
+		}
+		
+		if (keyAndNewMaps.isEmpty()) {
+			return 0;
+		}
+		
+		final User authenticatedUser = Context.getAuthenticatedUser();
+		final Integer creatorId = authenticatedUser != null ? authenticatedUser.getId() : null;
+		final Timestamp dateCreated = new Timestamp(System.currentTimeMillis());
+		List<Object[]> rows = new ArrayList<>(keyAndNewMaps.size());
+		for (EntityBasisMap map : keyAndNewMaps.values()) {
+			rows.add(new Object[] { map.getEntityIdentifier(), map.getEntityType(), map.getBasisIdentifier(),
+			        map.getBasisType(), toNumericId(map.getEntityType(), map.getEntityIdentifier()),
+			        toNumericId(map.getBasisType(), map.getBasisIdentifier()), getTypeCode(map.getEntityType(), true),
+			        getTypeCode(map.getBasisType(), true),
+			        map.getCreator() != null ? map.getCreator().getId() : creatorId,
+			        map.getDateCreated() != null ? new Timestamp(map.getDateCreated().getTime()) : dateCreated,
+			        map.getUuid() });
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Inserting " + rows.size() + " entity basis map(s)");
+		}
+		
+		executeObjectBatch(session, ENTITY_BASIS_MAP_INSERT, rows);
+		
+		return rows.size();
+	}
+	
+	/**
+	 * @see DataFilterDAO#deleteEntityBasisMaps(Collection)
+	 */
+	@Override
+	public int deleteEntityBasisMaps(Collection<EntityBasisMap> entityBasisMaps) {
+		Session session = sessionFactory.getCurrentSession();
+		session.flush();
+		
+		List<Object[]> rows = new ArrayList<>(entityBasisMaps.size());
+		for (EntityBasisMap map : entityBasisMaps) {
+			rows.add(new Object[] { map.getEntityIdentifier(), map.getEntityType(), map.getBasisIdentifier(),
+			        map.getBasisType() });
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Deleting up to " + rows.size() + " entity basis map(s)");
+		}
+		
+		return executeObjectBatch(session, ENTITY_BASIS_MAP_DELETE, rows);
+	}
+	
+	private static String toKey(String entityValue, String basisValue) {
+		return entityValue + KEY_SEPARATOR + basisValue;
+	}
+	
+	/**
+	 * @see DataFilterDAO#getPatientIdsWithoutLocation(Integer, int)
+	 */
+	@Override
+	public List<Integer> getPatientIdsWithoutLocation(Integer afterPatientId, int maxResults) {
+		List<Number> ids = sessionFactory.getCurrentSession().createNativeQuery(UNMAPPED_PATIENT_QUERY)
+		        .setParameter("afterId", afterPatientId == null ? 0 : afterPatientId).setParameter("voided", false)
+		        .setMaxResults(maxResults).list();
+		
+		return ids.stream().map(Number::intValue).collect(Collectors.toList());
+	}
+	
+	/**
+	 * @see DataFilterDAO#getPatientLocationIds(Collection, String)
+	 */
+	@Override
+	public Map<Integer, Set<Integer>> getPatientLocationIds(Collection<Integer> patientIds, String source) {
+		String table = PATIENT_LOCATION_SOURCE_TABLES.get(source);
+		if (table == null) {
+			throw new APIException("Unknown patient location source: " + source);
+		}
+		
+		Map<Integer, Set<Integer>> patientIdAndLocationIds = new HashMap<>();
+		if (patientIds.isEmpty()) {
+			return patientIdAndLocationIds;
+		}
+		
+		List<Object[]> rows = sessionFactory.getCurrentSession()
+		        .createNativeQuery("SELECT DISTINCT patient_id, location_id FROM " + table + " WHERE patient_id IN (:ids)"
+		                + " AND location_id IS NOT NULL AND voided = :voided")
+		        .setParameterList("ids", patientIds).setParameter("voided", false).list();
+		for (Object[] row : rows) {
+			patientIdAndLocationIds.computeIfAbsent(((Number) row[0]).intValue(), k -> new HashSet<>())
+			        .add(((Number) row[1]).intValue());
+		}
+		
+		return patientIdAndLocationIds;
+	}
+	
+	/**
+	 * Gets the code of the specified type from the {@link EntityBasisType} dictionary, types used by
+	 * the bundled filters are added with their reserved codes while other types are assigned the next
+	 * available code, see {@link #getNewTypeCode(String, Number)}.
+	 *
+	 * @param typeName the entity or basis type
+	 * @param create specifies whether to add the type to the dictionary if it is missing
+	 * @return the type code or null if the type is not in the dictionary and create is false
+	 */
+	private Short getTypeCode(String typeName, boolean create) {
+		Short code = typeCodes.get(typeName);
+		if (code != null) {
+			return code;
+		}
+		
+		Session session = sessionFactory.getCurrentSession();
+		EntityBasisType type = (EntityBasisType) session.createCriteria(EntityBasisType.class)
+		        .add(Restrictions.eq("typeName", typeName)).uniqueResult();
+		if (type != null) {
+			typeCodes.put(typeName, type.getCode());
+			return type.getCode();
+		}
+		
+		if (!create) {
+			return null;
+		}
+		
+		code = addType(typeName);
+		typeCodes.put(typeName, code);
+		
+		return code;
+	}
+	
+	/**
+	 * Adds the specified type to the {@link EntityBasisType} dictionary in a separate transaction that
+	 * is committed immediately, so other transactions see the new code right away. The insert fails on
+	 * the unique constraints if another transaction adds a type at the same time. In that case it is
+	 * retried with the dictionary read again.
+	 *
+	 * @param typeName the entity or basis type
+	 * @return the code of the type
+	 */
+	private Short addType(String typeName) {
+		for (int attempt = 1;; attempt++) {
+			Session session = sessionFactory.openSession();
+			try {
+				Transaction tx = session.beginTransaction();
+				try {
+					EntityBasisType type = (EntityBasisType) session.createCriteria(EntityBasisType.class)
+					        .add(Restrictions.eq("typeName", typeName)).uniqueResult();
+					if (type == null) {
+						Number maxCode = (Number) session
+						        .createQuery("SELECT MAX(t.code) FROM " + EntityBasisType.class.getSimpleName() + " t")
+						        .uniqueResult();
+						type = new EntityBasisType(getNewTypeCode(typeName, maxCode), typeName);
+						if (log.isDebugEnabled()) {
+							log.debug("Adding type " + typeName + " to the entity basis type dictionary with code "
+							        + type.getCode());
+						}
+						
+						session.save(type);
+					}
+					
+					tx.commit();
+					
+					return type.getCode();
+				}
+				catch (PersistenceException e) {
+					if (attempt >= MAX_ADD_TYPE_ATTEMPTS) {
+						throw new APIException("Failed to add " + typeName + " to the entity basis type dictionary", e);
+					}
+					
+					log.debug("Retrying to add " + typeName + " to the entity basis type dictionary", e);
+				}
+				finally {
+					if (tx.getStatus().canRollback()) {
+						tx.rollback();
+					}
+				}
+			}
+			finally {
+				session.close();
+			}
+		}
+	}
+	
+	/**
+	 * Converts the specified identifier to an integer unless the type is one whose instances are
+	 * identified by their names
+	 *
+	 * @param type the entity or basis type
+	 * @param identifier the identifier to convert
+	 * @return the integer identifier or {@link ImplConstants#NON_NUMERIC_ID}
+	 */
+	public static Integer toNumericId(String type, String identifier) {
+		if (NAMED_TYPES.contains(type) || !StringUtils.isNumeric(identifier)) {
+			return ImplConstants.NON_NUMERIC_ID;
+		}
+		
+		try {
+			return Integer.valueOf(identifier);
+		}
+		catch (NumberFormatException e) {
+			//The identifier is too large to be an integer id
+			return ImplConstants.NON_NUMERIC_ID;
+		}
+	}
+	
+	/**
+	 * Gets the code to assign to the specified type when adding it to the {@link EntityBasisType}
+	 * dictionary, types used by the bundled filters get their reserved codes while other types get the
+	 * next available code.
+	 *
+	 * @param typeName the entity or basis type
+	 * @param maxCode the highest code in the dictionary, can be null
+	 * @return the code
+	 */
+	public static short getNewTypeCode(String typeName, Number maxCode) {
+		Short code = ImplConstants.RESERVED_TYPE_CODES.get(typeName);
+		if (code != null) {
+			return code;
+		}
+		
+		int code = Math.max(maxCode == null ? 0 : maxCode.intValue() + 1, ImplConstants.FIRST_CUSTOM_TYPE_CODE);
+		if (code > Short.MAX_VALUE) {
+			throw new APIException("There are no more codes available for the entity basis type: " + typeName);
+		}
+		
+		return (short) code;
+	}
+	
 	/**
 	 * @see DataFilterDAO#deleteEntityBasisMap(EntityBasisMap)
 	 */
@@ -86,6 +490,12 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 	public List<EntityBasisMap> getEntityBasisMapsByBasis(String entityType, String basisType,
 			String basisIdentifier) {
 		
+		Short entityTypeCode = getTypeCode(entityType, false);
+		Short basisTypeCode = getTypeCode(basisType, false);
+		if (entityTypeCode == null || basisTypeCode == null) {
+			return new ArrayList<>();
+		}
+		
 		Session session = sessionFactory.getCurrentSession();
 		
 		CriteriaBuilder cb = session.getCriteriaBuilder();
@@ -94,8 +504,8 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 		Root<EntityBasisMap> root = cq.from(EntityBasisMap.class);
 		cq.select(root).where(
 				cb.and(
-						cb.equal(root.get("entityType"), entityType),
-						cb.equal(root.get("basisType"), basisType),
+						cb.equal(root.get("entityTypeCode"), entityTypeCode),
+						cb.equal(root.get("basisTypeCode"), basisTypeCode),
 						cb.equal(root.get("basisIdentifier"), basisIdentifier)
 				)
 		);
@@ -103,4 +513,240 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 		Query<EntityBasisMap> query = session.createQuery(cq);
 		return query.getResultList();
 	}
+	
+	/**
+	 * @see DataFilterDAO#addToLocationClosure(Integer, Integer)
+	 */
+	@Override
+	public boolean addToLocationClosure(Integer locationId, Integer parentLocationId) {
+		Session session = sessionFactory.getCurrentSession();
+		List<int[]> rows = new ArrayList<>();
+		rows.add(new int[] { locationId, locationId, 0 });
+		if (parentLocationId != null) {
+			List<Object[]> ancestors = session
+			        .createQuery("SELECT c.ancestorId, c.depth FROM LocationClosure c WHERE c.descendantId = :parentId",
+			            Object[].class)
+			        .setParameter("parentId", parentLocationId).list();
+			if (ancestors.isEmpty()) {
+				return false;
+			}
+			
+			for (Object[] ancestor : ancestors) {
+				rows.add(new int[] { (Integer) ancestor[0], locationId, (Integer) ancestor[1] + 1 });
+			}
+		}
+		
+		executeBatch(session, CLOSURE_INSERT, rows);
+		
+		return true;
+	}
+	
+	/**
+	 * @see DataFilterDAO#removeFromLocationClosure(Integer)
+	 */
+	@Override
+	public void removeFromLocationClosure(Integer locationId) {
+		sessionFactory.getCurrentSession()
+		        .createQuery("DELETE FROM LocationClosure c WHERE c.ancestorId = :id OR c.descendantId = :id")
+		        .setParameter("id", locationId).executeUpdate();
+	}
+	
+	/**
+	 * @see DataFilterDAO#rebuildLocationClosure()
+	 */
+	@Override
+	public void rebuildLocationClosure() {
+		Session session = sessionFactory.getCurrentSession();
+		Map<Integer, Integer> childParentMap = new HashMap<>();
+		List<Object[]> locations = session.createNativeQuery("SELECT location_id, parent_location FROM location").list();
+		for (Object[] row : locations) {
+			childParentMap.put(((Number) row[0]).intValue(), row[1] == null ? null : ((Number) row[1]).intValue());
+		}
+		
+		Map<Long, Integer> expectedRows = new HashMap<>();
+		for (int[] row : getLocationClosureRows(childParentMap)) {
+			expectedRows.put(toKey(row[0], row[1]), row[2]);
+		}
+		
+		List<int[]> rowsToDelete = new ArrayList<>();
+		List<Object[]> existingRows = session
+		        .createQuery("SELECT c.ancestorId, c.descendantId, c.depth FROM LocationClosure c", Object[].class).list();
+		for (Object[] row : existingRows) {
+			Long key = toKey((Integer) row[0], (Integer) row[1]);
+			Integer expectedDepth = expectedRows.get(key);
+			if (expectedDepth != null && expectedDepth.equals(row[2])) {
+				expectedRows.remove(key);
+			} else {
+				rowsToDelete.add(new int[] { (Integer) row[0], (Integer) row[1] });
+			}
+		}
+		
+		List<int[]> rowsToInsert = new ArrayList<>(expectedRows.size());
+		for (Map.Entry<Long, Integer> entry : expectedRows.entrySet()) {
+			rowsToInsert.add(new int[] { (int) (entry.getKey() >>> 32), entry.getKey().intValue(), entry.getValue() });
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Deleting " + rowsToDelete.size() + " and inserting " + rowsToInsert.size()
+			        + " location closure row(s)");
+		}
+		
+		executeBatch(session, CLOSURE_DELETE, rowsToDelete);
+		executeBatch(session, CLOSURE_INSERT, rowsToInsert);
+	}
+	
+	/**
+	 * Computes the rows of the location closure table for the location hierarchy defined by the
+	 * specified map of location ids to their parent location ids
+	 *
+	 * @param childParentMap maps the location ids to their parent location ids
+	 * @return a list of rows where each row holds the ancestor id, descendant id and depth
+	 */
+	public static List<int[]> getLocationClosureRows(Map<Integer, Integer> childParentMap) {
+		List<int[]> rows = new ArrayList<>();
+		for (Integer locationId : childParentMap.keySet()) {
+			rows.add(new int[] { locationId, locationId, 0 });
+			Set<Integer> ancestorIds = new HashSet<>();
+			Integer ancestorId = childParentMap.get(locationId);
+			int depth = 1;
+			//Stop at the first repeated location to guard against an endless loop in case of a cycle in the hierarchy
+			while (ancestorId != null && !ancestorId.equals(locationId) && ancestorIds.add(ancestorId)) {
+				rows.add(new int[] { ancestorId, locationId, depth });
+				ancestorId = childParentMap.get(ancestorId);
+				depth++;
+			}
+		}
+		
+		return rows;
+	}
+	
+	/**
+	 * @see DataFilterDAO#updateEncounterVisibility(Map)
+	 */
+	@Override
+	public void updateEncounterVisibility(Map<Integer, Integer> encounterIdTypeMap) {
+		List<int[]> rowsToDelete = new ArrayList<>(encounterIdTypeMap.size());
+		List<int[]> rowsToInsert = new ArrayList<>(encounterIdTypeMap.size());
+		for (Map.Entry<Integer, Integer> entry : encounterIdTypeMap.entrySet()) {
+			rowsToDelete.add(new int[] { entry.getKey() });
+			rowsToInsert.add(new int[] { entry.getKey(), entry.getValue() });
+		}
+		
+		Session session = sessionFactory.getCurrentSession();
+		executeBatch(session, VISIBILITY_DELETE, rowsToDelete);
+		executeBatch(session, VISIBILITY_INSERT, rowsToInsert);
+	}
+	
+	/**
+	 * @see DataFilterDAO#removeFromEncounterVisibility(Collection)
+	 */
+	@Override
+	public void removeFromEncounterVisibility(Collection<Integer> encounterIds) {
+		executeBatch(sessionFactory.getCurrentSession(), VISIBILITY_DELETE,
+		    encounterIds.stream().map(id -> new int[] { id }).collect(Collectors.toList()));
+	}
+	
+	/**
+	 * @see DataFilterDAO#rebuildEncounterVisibility()
+	 */
+	@Override
+	public int rebuildEncounterVisibility() {
+		Session session = sessionFactory.getCurrentSession();
+		int deleted = session.createNativeQuery(STALE_VISIBILITY_DELETE).executeUpdate();
+		int inserted = session.createNativeQuery(MISSING_VISIBILITY_INSERT).executeUpdate();
+		if (log.isDebugEnabled()) {
+			log.debug("Deleted " + deleted + " and inserted " + inserted + " encounter visibility row(s)");
+		}
+		
+		return deleted + inserted;
+	}
+	
+	/**
+	 * @see DataFilterDAO#getInconsistentEncounterVisibilityCount()
+	 */
+	@Override
+	public long getInconsistentEncounterVisibilityCount() {
+		Session session = sessionFactory.getCurrentSession();
+		Number missing = (Number) session.createNativeQuery(MISSING_VISIBILITY_COUNT_QUERY).uniqueResult();
+		Number orphans = (Number) session.createNativeQuery(ORPHAN_VISIBILITY_COUNT_QUERY).uniqueResult();
+		
+		return missing.longValue() + orphans.longValue();
+	}
+	
+	/**
+	 * @see DataFilterDAO#updatePatientSearchIndex(Collection)
+	 */
+	@Override
+	public void updatePatientSearchIndex(Collection<Integer> patientIds) {
+		FullTextSession session = Search.getFullTextSession(sessionFactory.getCurrentSession());
+		List<Integer> ids = new ArrayList<>(patientIds);
+		for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+			List<Integer> batch = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+			for (Map.Entry<Class<?>, String> entry : PATIENT_INDEXED_TYPES.entrySet()) {
+				List<?> records = session.createQuery("FROM " + entry.getKey().getName() + " r WHERE r." + entry.getValue()
+				        + " IN (:patientIds)").setParameterList("patientIds", batch).list();
+				for (Object record : records) {
+					session.index(record);
+				}
+			}
+			
+			session.flushToIndexes();
+			session.clear();
+		}
+	}
+	
+	private static Long toKey(int ancestorId, int descendantId) {
+		return ((long) ancestorId << 32) | (descendantId & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Executes the specified statement for each of the specified rows of parameter values in batches
+	 *
+	 * @return the total number of affected rows
+	 */
+	private static int executeObjectBatch(Session session, String sql, List<Object[]> rows) {
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		
+		return session.doReturningWork(connection -> {
+			int count = 0;
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (int i = 0; i < rows.size(); i++) {
+					Object[] row = rows.get(i);
+					for (int j = 0; j < row.length; j++) {
+						statement.setObject(j + 1, row[j]);
+					}
+					statement.addBatch();
+					if ((i + 1) % BATCH_SIZE == 0 || i == rows.size() - 1) {
+						for (int updateCount : statement.executeBatch()) {
+							//Some drivers don't report the count of each statement in a batch
+							count += updateCount == Statement.SUCCESS_NO_INFO ? 1 : Math.max(updateCount, 0);
+						}
+					}
+				}
+			}
+			
+			return count;
+		});
+	}
+	
+	private static void executeBatch(Session session, String sql, List<int[]> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		
+		session.doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (int[] row : rows) {
+					for (int i = 0; i < row.length; i++) {
+						statement.setInt(i + 1, row[i]);
+					}
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		});
+	}
+	
 }
@@ -0,0 +1,164 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.LocationClosure;
+import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * This interceptor keeps the {@link LocationClosure} table in sync with the location hierarchy,
+ * rows for new locations are added, rows for deleted locations are removed and the table is
+ * resynchronized when a location is moved to a different parent. The changes are applied when the
+ * session is flushed so that they are visible to the queries made later in the same transaction and
+ * are rolled back along with it.
+ */
+@Component("locationClosureInterceptor")
+public class LocationClosureInterceptor extends EmptyInterceptor {
+	
+	private static final Logger log = LoggerFactory.getLogger(LocationClosureInterceptor.class);
+	
+	private static final String PARENT_LOCATION_PROPERTY = "parentLocation";
+	
+	private static ThreadLocal<ClosureChanges> changesHolder = new ThreadLocal<>();
+	
+	/**
+	 * @see EmptyInterceptor#onSave(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Location) {
+			getChanges().newLocations.add((Location) entity);
+		}
+		
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		
+		if (entity instanceof Location && previousState != null) {
+			int index = ArrayUtils.indexOf(propertyNames, PARENT_LOCATION_PROPERTY);
+			if (index > -1 && !Objects.equals(currentState[index], previousState[index])) {
+				getChanges().rebuild = true;
+			}
+		}
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Location && id != null) {
+			getChanges().deletedLocationIds.add((Integer) id);
+		}
+		
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#postFlush(Iterator)
+	 */
+	@Override
+	public void postFlush(Iterator entities) {
+		ClosureChanges changes = changesHolder.get();
+		if (changes == null) {
+			return;
+		}
+		
+		changesHolder.remove();
+		DataFilterDAO dao = Context.getRegisteredComponents(DataFilterDAO.class).get(0);
+		try {
+			boolean rebuild = changes.rebuild;
+			if (!rebuild) {
+				for (Location location : changes.newLocations) {
+					if (location.getId() == null || changes.deletedLocationIds.contains(location.getId())) {
+						continue;
+					}
+					
+					Location parent = location.getParentLocation();
+					if (!dao.addToLocationClosure(location.getId(), parent != null ? parent.getId() : null)) {
+						//The closure rows for the parent are missing, the table is out of sync
+						rebuild = true;
+						break;
+					}
+				}
+			}
+			
+			if (rebuild) {
+				log.debug("Synchronizing the location closure table with the location hierarchy");
+				
+				dao.rebuildLocationClosure();
+			} else {
+				for (Integer locationId : changes.deletedLocationIds) {
+					dao.removeFromLocationClosure(locationId);
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to update the location closure table", e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		if (changesHolder.get() != null) {
+			changesHolder.remove();
+		}
+	}
+	
+	private ClosureChanges getChanges() {
+		ClosureChanges changes = changesHolder.get();
+		if (changes == null) {
+			changes = new ClosureChanges();
+			changesHolder.set(changes);
+		}
+		
+		return changes;
+	}
+	
+	private static class ClosureChanges {
+		
+		private List<Location> newLocations = new ArrayList<>();
+		
+		private Set<Integer> deletedLocationIds = new HashSet<>();
+		
+		private boolean rebuild;
+		
+	}
+	
+}
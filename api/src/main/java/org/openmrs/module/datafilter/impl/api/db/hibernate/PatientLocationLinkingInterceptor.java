@@ -22,6 +22,7 @@ import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.DAOException;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
 import org.openmrs.module.datafilter.impl.ImplConstants;
 import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
@@ -122,9 +123,7 @@ public class PatientLocationLinkingInterceptor extends EmptyInterceptor {
 	 * @return true if the interceptor is enabled otherwise false
 	 */
 	private boolean isInterceptorEnabled() {
-		//Hibernate will flush any changes in the current session before querying the DB when fetching
-		//the GP value below and we end up in this method again, therefore we need to disable auto flush
-		if (!"true".equalsIgnoreCase(InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_PAT_LOC_INTERCEPTOR_ENABLED))) {
+		if (!"true".equalsIgnoreCase(GlobalPropertyCache.getValue(ImplConstants.GP_PAT_LOC_INTERCEPTOR_ENABLED))) {
 			if (log.isTraceEnabled()) {
 				log.trace("Skipping PatientLocationLinkingInterceptor because is it disabled");
 			}
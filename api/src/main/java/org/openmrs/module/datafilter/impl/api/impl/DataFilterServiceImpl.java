@@ -9,27 +9,45 @@
  */
 package org.openmrs.module.datafilter.impl.api.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Hibernate;
+import org.openmrs.Location;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Privilege;
 import org.openmrs.Role;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.impl.AccessUtil;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.ImplConstants;
+import org.openmrs.module.datafilter.impl.PatientSearchIndexUpdater;
 import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Transactional(readOnly = true)
 public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFilterService {
 	
+	private static final Logger log = LoggerFactory.getLogger(DataFilterServiceImpl.class);
+	
 	private DataFilterDAO dao;
 	
 	/**
@@ -56,19 +74,7 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 	@Transactional
 	@Override
 	public void grantAccess(OpenmrsObject entity, Collection<OpenmrsObject> bases) {
-		for (OpenmrsObject basis : bases) {
-			if (!hasAccess(entity, basis)) {
-				EntityBasisMap map = new EntityBasisMap();
-				map.setEntityIdentifier(getIdentifier(entity));
-				map.setEntityType(Hibernate.getClass(entity).getName());
-				map.setBasisIdentifier(getIdentifier(basis));
-				map.setBasisType(Hibernate.getClass(basis).getName());
-				
-				dao.saveEntityBasisMap(map);
-			}
-		}
-		
-		DataFilterSessionContext.reset();
+		Context.getService(DataFilterService.class).grantAccess(Collections.singletonMap(entity, bases));
 	}
 	
 	/**
@@ -86,17 +92,93 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 	@Transactional
 	@Override
 	public void revokeAccess(OpenmrsObject entity, Collection<OpenmrsObject> bases) {
-		for (OpenmrsObject basis : bases) {
-			EntityBasisMap map = dao.getEntityBasisMap(getIdentifier(entity), Hibernate.getClass(entity).getName(),
-			    getIdentifier(basis), Hibernate.getClass(basis).getName());
-			if (map != null) {
-				dao.deleteEntityBasisMap(map);
-			}
+		Context.getService(DataFilterService.class).revokeAccess(Collections.singletonMap(entity, bases));
+	}
+	
+	/**
+	 * @see DataFilterService#grantAccess(Map)
+	 */
+	@Transactional
+	@Override
+	public void grantAccess(Map<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entityAndBases) {
+		List<EntityBasisMap> maps = toEntityBasisMaps(entityAndBases);
+		if (dao.saveEntityBasisMaps(maps) > 0) {
+			onAccessChanged(maps);
 		}
 		
 		DataFilterSessionContext.reset();
 	}
 	
+	/**
+	 * @see DataFilterService#revokeAccess(Map)
+	 */
+	@Transactional
+	@Override
+	public void revokeAccess(Map<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entityAndBases) {
+		List<EntityBasisMap> maps = toEntityBasisMaps(entityAndBases);
+		if (dao.deleteEntityBasisMaps(maps) > 0) {
+			onAccessChanged(maps);
+		}
+		
+		DataFilterSessionContext.reset();
+	}
+	
+	private List<EntityBasisMap> toEntityBasisMaps(
+	        Map<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entityAndBases) {
+		
+		List<EntityBasisMap> maps = new ArrayList<>();
+		for (Map.Entry<? extends OpenmrsObject, ? extends Collection<? extends OpenmrsObject>> entry : entityAndBases
+		        .entrySet()) {
+			final String entityIdentifier = getIdentifier(entry.getKey());
+			final String entityType = Hibernate.getClass(entry.getKey()).getName();
+			for (OpenmrsObject basis : entry.getValue()) {
+				EntityBasisMap map = new EntityBasisMap();
+				map.setEntityIdentifier(entityIdentifier);
+				map.setEntityType(entityType);
+				map.setBasisIdentifier(getIdentifier(basis));
+				map.setBasisType(Hibernate.getClass(basis).getName());
+				maps.add(map);
+			}
+		}
+		
+		return maps;
+	}
+	
+	/**
+	 * The mappings are written without going through the hibernate session so the interceptor that
+	 * clears the cached access data isn't invoked, we clear the cache immediately and again after the
+	 * transaction completes so that values loaded by other threads before the changes are committed
+	 * don't linger in the cache. Mappings of patients to their bases only affect the cached person ids
+	 * so only those are cleared if all the mappings are for patients. The indexed locations of the
+	 * affected patients are updated after the transaction is committed.
+	 */
+	private void onAccessChanged(List<EntityBasisMap> maps) {
+		final boolean personIdsOnly = maps.stream().allMatch(m -> Patient.class.getName().equals(m.getEntityType()));
+		clearCache(personIdsOnly);
+		PatientSearchIndexUpdater.updateAfterCommit(maps.stream()
+		        .filter(m -> Patient.class.getName().equals(m.getEntityType())
+		                && Location.class.getName().equals(m.getBasisType()))
+		        .map(m -> Integer.valueOf(m.getEntityIdentifier())).collect(Collectors.toSet()));
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					clearCache(personIdsOnly);
+				}
+				
+			});
+		}
+	}
+	
+	private static void clearCache(boolean personIdsOnly) {
+		if (personIdsOnly) {
+			AccessUtil.clearPersonIdCache();
+		} else {
+			AccessUtil.clearCache();
+		}
+	}
+	
 	/**
 	 * @see DataFilterService#hasAccess(OpenmrsObject, OpenmrsObject)
 	 */
@@ -148,4 +230,83 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 	public Collection<EntityBasisMap> getEntityBasisMapsByBasis(String entityClassName, OpenmrsObject basis) {
 		return dao.getEntityBasisMapsByBasis(entityClassName, Hibernate.getClass(basis).getName(), basis.getId().toString());
 	}
+	
+	/**
+	 * @see DataFilterService#rebuildLocationClosure()
+	 */
+	@Transactional
+	@Override
+	public void rebuildLocationClosure() {
+		dao.rebuildLocationClosure();
+		AccessUtil.clearCache();
+	}
+	
+	/**
+	 * @see DataFilterService#rebuildEncounterVisibility()
+	 */
+	@Transactional
+	@Override
+	public int rebuildEncounterVisibility() {
+		return dao.rebuildEncounterVisibility();
+	}
+	
+	/**
+	 * @see DataFilterService#checkEncounterVisibility()
+	 */
+	@Override
+	public long checkEncounterVisibility() {
+		return dao.getInconsistentEncounterVisibilityCount();
+	}
+	
+	/**
+	 * @see DataFilterService#backfillPatientLocations(Integer, int)
+	 */
+	@Transactional
+	@Override
+	public Integer backfillPatientLocations(Integer afterPatientId, int batchSize) {
+		List<Integer> patientIds = dao.getPatientIdsWithoutLocation(afterPatientId, batchSize);
+		if (patientIds.isEmpty()) {
+			return null;
+		}
+		
+		String sources = Context.getAdministrationService().getGlobalProperty(ImplConstants.GP_PAT_LOC_BACKFILL_SOURCES,
+		    ImplConstants.DEFAULT_PAT_LOC_BACKFILL_SOURCES);
+		Set<Integer> remainingPatientIds = new HashSet<>(patientIds);
+		Map<Patient, List<Location>> patientAndLocations = new HashMap<>();
+		for (String source : StringUtils.split(sources, ',')) {
+			if (remainingPatientIds.isEmpty()) {
+				break;
+			}
+			
+			Map<Integer, Set<Integer>> patientIdAndLocationIds = dao.getPatientLocationIds(remainingPatientIds,
+			    source.trim());
+			for (Map.Entry<Integer, Set<Integer>> entry : patientIdAndLocationIds.entrySet()) {
+				patientAndLocations.put(new Patient(entry.getKey()),
+				    entry.getValue().stream().map(Location::new).collect(Collectors.toList()));
+				remainingPatientIds.remove(entry.getKey());
+			}
+		}
+		
+		if (!patientAndLocations.isEmpty()) {
+			grantAccess(patientAndLocations);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Linked " + patientAndLocations.size() + " of " + patientIds.size() + " patient(s) to locations");
+		}
+		
+		return patientIds.get(patientIds.size() - 1);
+	}
+	
+	/**
+	 * @see DataFilterService#updatePatientSearchIndex(Collection)
+	 */
+	@Transactional
+	@Override
+	public void updatePatientSearchIndex(Collection<Integer> patientIds) {
+		if (!patientIds.isEmpty()) {
+			dao.updatePatientSearchIndex(patientIds);
+		}
+	}
+	
 }
@@ -23,6 +23,10 @@ public class HibernateFilterRegistration extends FilterRegistration<HibernateFil
 	
 	private List<FilterAlias> aliases;
 	
+	private String variantOf;
+	
+	private String variant;
+	
 	/**
 	 * Gets the property
 	 *
@@ -113,4 +117,52 @@ public class HibernateFilterRegistration extends FilterRegistration<HibernateFil
 		this.aliases = aliases;
 	}
 	
+	/**
+	 * Gets the variantOf
+	 *
+	 * @return the variantOf
+	 */
+	public String getVariantOf() {
+		return variantOf;
+	}
+	
+	/**
+	 * Sets the variantOf
+	 *
+	 * @param variantOf the variantOf to set
+	 */
+	public void setVariantOf(String variantOf) {
+		this.variantOf = variantOf;
+	}
+	
+	/**
+	 * Gets the variant
+	 *
+	 * @return the variant
+	 */
+	public String getVariant() {
+		return variant;
+	}
+	
+	/**
+	 * Sets the variant
+	 *
+	 * @param variant the variant to set
+	 */
+	public void setVariant(String variant) {
+		this.variant = variant;
+	}
+	
+	/**
+	 * Gets the name of the filter this registration represents, for a variant this is the name of the
+	 * filter it is a variant of otherwise it is the name of the registration itself. The returned name
+	 * is the one used to look up listeners, the global property to disable the filter and the by pass
+	 * privilege.
+	 *
+	 * @return the filter name
+	 */
+	public String getBaseName() {
+		return variantOf != null ? variantOf : getName();
+	}
+	
 }
@@ -0,0 +1,71 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore({ "javax.management.*" })
+@PrepareForTest(Util.class)
+public class DataFilterListenerRegistryTest {
+	
+	private static HibernateFilterRegistration createRegistration(String name, String variantOf) {
+		HibernateFilterRegistration registration = new HibernateFilterRegistration();
+		registration.setName(name);
+		registration.setVariantOf(variantOf);
+		return registration;
+	}
+	
+	@Test
+	public void createIndex_shouldMapEachFilterToTheListenerThatSupportsIt() {
+		mockStatic(Util.class);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(Arrays.asList(createRegistration("filter1", null),
+		    createRegistration("filter1_exists", "filter1"), createRegistration("filter2", null)));
+		DataFilterListener listener = mock(DataFilterListener.class);
+		when(listener.supports("filter1")).thenReturn(true);
+		
+		Map<String, DataFilterListener> index = DataFilterListenerRegistry.createIndex(Collections.singletonList(listener));
+		
+		assertEquals(1, index.size());
+		assertEquals(listener, index.get("filter1"));
+		assertNull(index.get("filter2"));
+	}
+	
+	@Test
+	public void createIndex_shouldUseTheFirstListenerIfMultipleListenersSupportTheSameFilter() {
+		mockStatic(Util.class);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(Collections.singletonList(createRegistration("filter1", null)));
+		DataFilterListener listener1 = mock(DataFilterListener.class);
+		when(listener1.supports("filter1")).thenReturn(true);
+		DataFilterListener listener2 = mock(DataFilterListener.class);
+		when(listener2.supports("filter1")).thenReturn(true);
+		
+		Map<String, DataFilterListener> index = DataFilterListenerRegistry.createIndex(Arrays.asList(listener1, listener2));
+		
+		assertEquals(1, index.size());
+		assertEquals(listener1, index.get("filter1"));
+	}
+	
+}
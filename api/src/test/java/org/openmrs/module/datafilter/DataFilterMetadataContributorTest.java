@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.persistence.Entity;
+
+import org.hibernate.boot.spi.InFlightMetadataCollector;
+import org.hibernate.cfg.SecondPass;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.ManyToOne;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.type.Type;
+import org.hibernate.type.TypeResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore({ "javax.management.*" })
+@PrepareForTest(Util.class)
+public class DataFilterMetadataContributorTest {
+	
+	private static final String FILTER_NAME = "myFilter";
+	
+	private static final String CONDITION = "voided = :voided";
+	
+	@Entity
+	private static class MockEntity {}
+	
+	private static class MockHbmEntity {}
+	
+	private InFlightMetadataCollector mockCollector;
+	
+	@Before
+	public void setup() {
+		mockStatic(Util.class);
+		mockCollector = mock(InFlightMetadataCollector.class);
+	}
+	
+	private static HibernateFilterRegistration createRegistration(Class<?> targetClass, String property) {
+		HibernateFilterRegistration registration = new HibernateFilterRegistration();
+		registration.setName(FILTER_NAME);
+		registration.setTargetClasses(Collections.singletonList(targetClass));
+		registration.setProperty(property);
+		registration.setCondition(CONDITION);
+		return registration;
+	}
+	
+	private void contributeAndRunSecondPass() {
+		new DataFilterMetadataContributor().contribute(mockCollector, null);
+		ArgumentCaptor<SecondPass> captor = ArgumentCaptor.forClass(SecondPass.class);
+		verify(mockCollector).addSecondPass(captor.capture());
+		captor.getValue().doSecondPass(Collections.emptyMap());
+	}
+	
+	@Test
+	public void contribute_shouldAddTheFilterDefinitionsAndFiltersForClassesMappedWithAnnotations() {
+		HibernateFilterRegistration registration = createRegistration(MockEntity.class, null);
+		registration.setDefaultCondition("voided = 0");
+		HibernateFilterParameter parameter = new HibernateFilterParameter();
+		parameter.setName("voided");
+		parameter.setType("boolean");
+		registration.setParameters(Collections.singletonList(parameter));
+		when(Util.getHibernateFilterRegistrations()).thenReturn(Collections.singletonList(registration));
+		TypeResolver mockTypeResolver = mock(TypeResolver.class);
+		Type mockType = mock(Type.class);
+		when(mockTypeResolver.heuristicType("boolean")).thenReturn(mockType);
+		when(mockCollector.getTypeResolver()).thenReturn(mockTypeResolver);
+		PersistentClass mockEntityBinding = mock(PersistentClass.class);
+		when(mockCollector.getEntityBinding(MockEntity.class.getName())).thenReturn(mockEntityBinding);
+		
+		contributeAndRunSecondPass();
+		
+		ArgumentCaptor<FilterDefinition> captor = ArgumentCaptor.forClass(FilterDefinition.class);
+		verify(mockCollector).addFilterDefinition(captor.capture());
+		FilterDefinition filterDefinition = captor.getValue();
+		assertEquals(FILTER_NAME, filterDefinition.getFilterName());
+		assertEquals(registration.getDefaultCondition(), filterDefinition.getDefaultFilterCondition());
+		assertEquals(mockType, filterDefinition.getParameterType("voided"));
+		verify(mockEntityBinding).addFilter(eq(FILTER_NAME), eq(CONDITION), eq(true), anyMap(), anyMap());
+		assertTrue(DataFilterMetadataContributor.isContributed());
+	}
+	
+	@Test
+	public void contribute_shouldSkipClassesMappedWithHbmFiles() {
+		when(Util.getHibernateFilterRegistrations())
+		        .thenReturn(Collections.singletonList(createRegistration(MockHbmEntity.class, null)));
+		
+		contributeAndRunSecondPass();
+		
+		verify(mockCollector, never()).addFilterDefinition(any(FilterDefinition.class));
+		verify(mockCollector, never()).getEntityBinding(anyString());
+	}
+	
+	@Test
+	public void contribute_shouldAddTheFiltersForCollectionProperties() {
+		HibernateFilterRegistration oneToManyReg = createRegistration(MockEntity.class, "children");
+		HibernateFilterRegistration manyToManyReg = createRegistration(MockEntity.class, "tags");
+		when(Util.getHibernateFilterRegistrations()).thenReturn(Arrays.asList(oneToManyReg, manyToManyReg));
+		Collection mockChildren = mock(Collection.class);
+		when(mockChildren.getElement()).thenReturn(mock(OneToMany.class));
+		when(mockCollector.getCollectionBinding(MockEntity.class.getName() + ".children")).thenReturn(mockChildren);
+		Collection mockTags = mock(Collection.class);
+		when(mockTags.getElement()).thenReturn(mock(ManyToOne.class));
+		when(mockCollector.getCollectionBinding(MockEntity.class.getName() + ".tags")).thenReturn(mockTags);
+		
+		contributeAndRunSecondPass();
+		
+		verify(mockCollector, never()).addFilterDefinition(any(FilterDefinition.class));
+		verify(mockChildren).addFilter(eq(FILTER_NAME), eq(CONDITION), eq(true), anyMap(), anyMap());
+		verify(mockChildren, never()).addManyToManyFilter(anyString(), anyString(), anyBoolean(), anyMap(), anyMap());
+		verify(mockTags).addManyToManyFilter(eq(FILTER_NAME), eq(CONDITION), eq(true), anyMap(), anyMap());
+		verify(mockTags, never()).addFilter(anyString(), anyString(), anyBoolean(), anyMap(), anyMap());
+	}
+	
+}
@@ -23,6 +23,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.impl.BaseFilterTest;
+import org.openmrs.module.datafilter.impl.DataFilterTestUtils;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.powermock.reflect.Whitebox;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,11 +53,23 @@ public class DataFilterSessionContextSensitiveTest extends BaseFilterTest {
 		
 		Session session = currentSessionContext.currentSession();
 		
-		List<HibernateFilterRegistration> filters = Util.getHibernateFilterRegistrations();
+		List<HibernateFilterRegistration> filters = Util.getActiveHibernateFilterRegistrations();
 		List<String> enabledFilterNames = filters.stream().filter(f -> !disabledFilters.contains(f.getName()))
 		        .map(f -> f.getName()).collect(Collectors.toList());
 		enabledFilterNames.forEach(f -> assertNotNull(session.getEnabledFilter(f)));
 		disabledFilters.forEach(f -> assertNull(session.getEnabledFilter(f)));
 	}
 	
+	@Test
+	public void currentSession_shouldEnableTheSelectedVariantOfAFilterInsteadOfTheDefault() {
+		DataFilterTestUtils.setFilterVariant("exists");
+		reloginAs("dyorke", "test");
+		final String filterName = "datafilter_locationBasedVisitFilter";
+		
+		Session session = currentSessionContext.currentSession();
+		
+		assertNull(session.getEnabledFilter(filterName));
+		assertNotNull(session.getEnabledFilter(filterName + "_exists"));
+	}
+	
 }
@@ -9,12 +9,22 @@
  */
 package org.openmrs.module.datafilter;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -22,15 +32,24 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.support.membermodification.MemberMatcher.method;
 import static org.powermock.api.support.membermodification.MemberModifier.suppress;
 
+import org.hibernate.Filter;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.type.IntegerType;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.context.Daemon;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -41,7 +60,7 @@ import org.springframework.orm.hibernate5.SpringSessionContext;
 
 @RunWith(PowerMockRunner.class)
 @PowerMockIgnore({ "javax.management.*" })
-@PrepareForTest({ SpringSessionContext.class, Daemon.class, Util.class })
+@PrepareForTest({ SpringSessionContext.class, Daemon.class, Util.class, Context.class })
 public class DataFilterSessionContextTest {
 	
 	@Mock
@@ -56,6 +75,8 @@ public class DataFilterSessionContextTest {
 	public void setup() {
 		mocksCloseable = MockitoAnnotations.openMocks(this);
 		DataFilterSessionContext.reset();
+		DataFilterSessionContext.clearActivationPlans();
+		DataFilterListenerRegistry.clear();
 	}
 	
 	@After
@@ -66,13 +87,13 @@ public class DataFilterSessionContextTest {
 	@Test
 	public void currentSession_shouldSkipIfTheMethodHasAlreadyBeenCalledOnTheCurrentThread() {
 		mockStatic(Util.class);
-		suppress(method(SpringSessionContext.class, "currentSession"));
+		mockStatic(Context.class);
 		
 		Session mockSession = mock(Session.class);
-		when(sfImpl.openSession()).thenReturn(mockSession);
 		Map<String, Object> sessionProperties = new HashMap<>();
-		sessionProperties.put(DataFilterConstants.MODULE_ID + "filters.applied", "true");
 		when(mockSession.getProperties()).thenReturn(sessionProperties);
+		doAnswer(invocation -> sessionProperties.put(invocation.getArgument(0), invocation.getArgument(1)))
+		        .when(mockSession).setProperty(anyString(), any());
 		
 		Whitebox.setInternalState(DataFilterSessionContext.class, "log", mockLogger);
 		when(mockLogger.isTraceEnabled()).thenReturn(true);
@@ -84,6 +105,7 @@ public class DataFilterSessionContextTest {
 				return mockSession;
 			}
 		};
+		sessionContext.currentSession();
 		
 		try (Session ignored = sessionContext.currentSession()) {
 			verify(mockLogger, times(1))
@@ -91,9 +113,44 @@ public class DataFilterSessionContextTest {
 		}
 	}
 	
+	@Test
+	public void currentSession_shouldSetTheFiltersAgainIfTheActivationPlansHaveChanged() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filterName = "testFilter";
+		HibernateFilterRegistration registration = mock(HibernateFilterRegistration.class);
+		when(registration.getName()).thenReturn(filterName);
+		when(registration.getBaseName()).thenReturn(filterName);
+		List<HibernateFilterRegistration> registrations = Collections.singletonList(registration);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(registrations);
+		when(Util.getActiveHibernateFilterRegistrations()).thenReturn(registrations);
+		Session mockSession = mock(Session.class);
+		Map<String, Object> sessionProperties = new HashMap<>();
+		when(mockSession.getProperties()).thenReturn(sessionProperties);
+		doAnswer(invocation -> sessionProperties.put(invocation.getArgument(0), invocation.getArgument(1)))
+		        .when(mockSession).setProperty(anyString(), any());
+		when(mockSession.enableFilter(filterName)).thenReturn(mock(Filter.class));
+		DataFilterSessionContext sessionContext = new DataFilterSessionContext(sfImpl) {
+			
+			@Override
+			Session currentSessionInternal() {
+				return mockSession;
+			}
+		};
+		sessionContext.currentSession();
+		sessionContext.currentSession();
+		verify(mockSession, times(1)).enableFilter(filterName);
+		
+		DataFilterSessionContext.clearActivationPlans();
+		sessionContext.currentSession();
+		
+		verify(mockSession, times(2)).enableFilter(filterName);
+	}
+	
 	@Test
 	public void currentSession_shouldNotSkipIfTheMethodHasNotYetBeenCalledOnTheCurrentThread() {
 		mockStatic(Util.class);
+		mockStatic(Context.class);
 		final Session mockSession = mock(Session.class);
 		when(mockSession.getProperties()).thenReturn(mock(Map.class));
 		Whitebox.setInternalState(DataFilterSessionContext.class, "log", mockLogger);
@@ -136,4 +193,96 @@ public class DataFilterSessionContextTest {
 		}
 	}
 	
+	@Test
+	public void currentSession_shouldReuseTheFilterActivationPlanOfTheUserForNewSessions() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filterName = "testFilter";
+		HibernateFilterRegistration registration = mock(HibernateFilterRegistration.class);
+		when(registration.getName()).thenReturn(filterName);
+		when(registration.getBaseName()).thenReturn(filterName);
+		List<HibernateFilterRegistration> registrations = Collections.singletonList(registration);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(registrations);
+		when(Util.getActiveHibernateFilterRegistrations()).thenReturn(registrations);
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
+		DataFilterListener listener = mock(DataFilterListener.class);
+		when(listener.supports(filterName)).thenReturn(true);
+		when(listener.onEnableFilter(any(DataFilterContext.class))).thenReturn(true);
+		when(Context.getRegisteredComponents(DataFilterListener.class)).thenReturn(Collections.singletonList(listener));
+		final Session session1 = mock(Session.class);
+		final Session session2 = mock(Session.class);
+		for (Session session : Arrays.asList(session1, session2)) {
+			when(session.getProperties()).thenReturn(new HashMap<>());
+			when(session.enableFilter(filterName)).thenReturn(mock(Filter.class));
+		}
+		
+		new DataFilterSessionContext(sfImpl) {
+			
+			@Override
+			Session currentSessionInternal() {
+				return session1;
+			}
+		}.currentSession();
+		new DataFilterSessionContext(sfImpl) {
+			
+			@Override
+			Session currentSessionInternal() {
+				return session2;
+			}
+		}.currentSession();
+		
+		verify(session1).enableFilter(filterName);
+		verify(session2).enableFilter(filterName);
+		verify(listener, times(1)).onEnableFilter(any(DataFilterContext.class));
+	}
+	
+	@Test
+	public void currentSession_shouldDeferResolvingParameterValuesUntilNeededIfLazyFilterActivationIsEnabled() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filterName = "testFilter";
+		final String paramName = "ids";
+		HibernateFilterParameter parameter = new HibernateFilterParameter();
+		parameter.setName(paramName);
+		parameter.setType("integer");
+		HibernateFilterRegistration registration = mock(HibernateFilterRegistration.class);
+		when(registration.getName()).thenReturn(filterName);
+		when(registration.getBaseName()).thenReturn(filterName);
+		when(registration.getParameters()).thenReturn(Collections.singletonList(parameter));
+		List<HibernateFilterRegistration> registrations = Collections.singletonList(registration);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(registrations);
+		when(Util.getActiveHibernateFilterRegistrations()).thenReturn(registrations);
+		when(Util.isLazyFilterActivationEnabled()).thenReturn(true);
+		Supplier<Collection<Integer>> supplier = mock(Supplier.class);
+		when(supplier.get()).thenReturn(Arrays.asList(1, 2));
+		DataFilterListener listener = mock(DataFilterListener.class);
+		when(listener.supports(filterName)).thenReturn(true);
+		when(listener.onEnableFilter(any(DataFilterContext.class))).then(invocation -> {
+			((DataFilterContext) invocation.getArgument(0)).setDeferredParameter(paramName, supplier);
+			return true;
+		});
+		when(Context.getRegisteredComponents(DataFilterListener.class)).thenReturn(Collections.singletonList(listener));
+		when(sfImpl.getFilterDefinition(filterName)).thenReturn(
+		    new FilterDefinition(filterName, "id IN (:ids)", Collections.singletonMap(paramName, IntegerType.INSTANCE)));
+		final LoadQueryInfluencers loadQueryInfluencers = new LoadQueryInfluencers(sfImpl);
+		final SessionImplementor session = mock(SessionImplementor.class);
+		when(session.getProperties()).thenReturn(new HashMap<>());
+		when(session.getFactory()).thenReturn(sfImpl);
+		when(session.getLoadQueryInfluencers()).thenReturn(loadQueryInfluencers);
+		
+		new DataFilterSessionContext(sfImpl) {
+			
+			@Override
+			Session currentSessionInternal() {
+				return session;
+			}
+		}.currentSession();
+		loadQueryInfluencers.getEnabledFilters();
+		
+		verify(supplier, never()).get();
+		assertEquals(Arrays.asList(1, 2), loadQueryInfluencers.getFilterParameterValue(filterName + "." + paramName));
+		assertEquals(Arrays.asList(1, 2), loadQueryInfluencers.getFilterParameterValue(filterName + "." + paramName));
+		verify(supplier, times(1)).get();
+	}
+	
 }
@@ -75,6 +75,7 @@ public class DataFilterSessionFactoryBeanTest {
 		mockStatic(Util.class);
 		mockStatic(OpenmrsClassLoader.class);
 		Whitebox.setInternalState(DataFilterSessionFactoryBean.class, Logger.class, mockLogger);
+		MappingResourceIndex.clearMappedClassNames();
 	}
 	
 	@After
@@ -9,8 +9,10 @@
  */
 package org.openmrs.module.datafilter;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -23,10 +25,12 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.hibernate.search.FullTextQuery;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.openmrs.PatientIdentifier;
 import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.FullTextQueryAndEntityClass;
@@ -44,8 +48,11 @@ public class FullTextQueryCreatedEventListenerTest {
 	@Mock
 	private FullTextQuery fullTextQuery;
 	
+	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
+		FullTextQueryCreatedEventListener.clearCache();
+		DataFilterListenerRegistry.clear();
 	}
 	
 	@Test
@@ -74,4 +81,29 @@ public class FullTextQueryCreatedEventListenerTest {
 		verify(fullTextQuery, times(1)).enableFullTextFilter(eq(filter2));
 	}
 	
+	@Test
+	public void onApplicationEvent_shouldReuseThePlanOfTheUserForSubsequentQueriesOnTheSameClass() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filterName = "filter";
+		final Class clazz = PersonName.class;
+		FullTextFilterRegistration filterReg = new FullTextFilterRegistration();
+		filterReg.setName(filterName);
+		filterReg.setTargetClasses(Collections.singletonList(clazz));
+		when(Util.getFullTextFilterRegistrations()).thenReturn(Collections.singletonList(filterReg));
+		DataFilterListener listener = mock(DataFilterListener.class);
+		when(listener.supports(filterName)).thenReturn(true);
+		when(listener.onEnableFilter(any(DataFilterContext.class))).thenReturn(true);
+		when(Context.getRegisteredComponents(DataFilterListener.class)).thenReturn(Collections.singletonList(listener));
+		FullTextQueryCreatedEventListener eventListener = new FullTextQueryCreatedEventListener();
+		
+		eventListener.onApplicationEvent(new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, clazz)));
+		eventListener.onApplicationEvent(new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, clazz)));
+		eventListener.onApplicationEvent(
+		    new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, PatientIdentifier.class)));
+		
+		verify(fullTextQuery, times(2)).enableFullTextFilter(eq(filterName));
+		verify(listener, times(1)).onEnableFilter(any(DataFilterContext.class));
+	}
+	
 }
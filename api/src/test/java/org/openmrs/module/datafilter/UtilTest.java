@@ -11,20 +11,27 @@ package org.openmrs.module.datafilter;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.openmrs.module.datafilter.DataFilterConstants.BYPASS_PRIV_SUFFIX;
+import static org.openmrs.module.datafilter.DataFilterConstants.DISABLED;
 import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 import static org.openmrs.module.datafilter.Util.getDocumentBuilder;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
-import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -36,7 +43,6 @@ import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.annotations.FilterDef;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -47,7 +53,6 @@ import org.openmrs.EncounterType;
 import org.openmrs.Location;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.module.datafilter.annotations.FilterDefAnnotation;
 import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.openmrs.util.OpenmrsClassLoader;
@@ -55,6 +60,7 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 import org.w3c.dom.Document;
 
 @RunWith(PowerMockRunner.class)
@@ -101,23 +107,59 @@ public class UtilTest {
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
+		GlobalPropertyCache.clear();
 	}
 	
 	@Test
-	public void addAnnotationToClass_shouldAddTheSpecifiedAnnotationToTheSpecifiedClass()
-	        throws ReflectiveOperationException {
-		Class<? extends Annotation> annotationClass = FilterDef.class;
-		Class<?> clazz = Concept.class;
-		assertFalse(clazz.isAnnotationPresent(annotationClass));
+	public void loadHibernateFilterRegistrations_shouldLoadAllHibernateFilterRegistrations() {
+		assertEquals(40, Util.getHibernateFilterRegistrations().size());
+	}
+	
+	@Test
+	public void getActiveHibernateFilterRegistrations_shouldExcludeVariantsIfNoVariantIsSelected() {
+		mockStatic(Context.class);
+		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
+		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(Collections.emptyList());
 		
-		Util.addAnnotationToClass(clazz, new FilterDefAnnotation("some name", null, null));
+		List<HibernateFilterRegistration> registrations = Util.getActiveHibernateFilterRegistrations();
 		
-		assertTrue(clazz.isAnnotationPresent(annotationClass));
+		assertEquals(20, registrations.size());
+		assertTrue(registrations.stream().allMatch(r -> r.getVariantOf() == null));
 	}
 	
 	@Test
-	public void loadHibernateFilterRegistrations_shouldLoadAllHibernateFilterRegistrations() {
-		assertEquals(20, Util.getHibernateFilterRegistrations().size());
+	public void getActiveHibernateFilterRegistrations_shouldReplaceFiltersWithTheirSelectedVariants() {
+		mockStatic(Context.class);
+		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
+		List<List<Object>> rows = Collections.singletonList(Arrays.asList(DataFilterConstants.GP_FILTER_VARIANT, "exists"));
+		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(rows);
+		
+		List<String> names = Util.getActiveHibernateFilterRegistrations().stream().map(r -> r.getName())
+		        .collect(Collectors.toList());
+		
+		assertEquals(20, names.size());
+		assertTrue(names.contains("datafilter_locationBasedVisitFilter_exists"));
+		assertFalse(names.contains("datafilter_locationBasedVisitFilter"));
+		assertTrue(names.contains("datafilter_locationFilter"));
+	}
+	
+	@Test
+	public void getActiveHibernateFilterRegistrations_shouldReplaceFiltersWithAnyOfTheSelectedVariants() {
+		mockStatic(Context.class);
+		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
+		List<List<Object>> rows = Collections
+		        .singletonList(Arrays.asList(DataFilterConstants.GP_FILTER_VARIANT, "exists, viewableTypes"));
+		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(rows);
+		
+		List<String> names = Util.getActiveHibernateFilterRegistrations().stream().map(r -> r.getName())
+		        .collect(Collectors.toList());
+		
+		assertEquals(20, names.size());
+		assertTrue(names.contains("datafilter_locationBasedVisitFilter_exists"));
+		assertFalse(names.contains("datafilter_locationBasedVisitFilter"));
+		assertTrue(names.contains("datafilter_encTypePrivBasedObsFilter_viewableTypes"));
+		assertFalse(names.contains("datafilter_encTypePrivBasedObsFilter"));
+		assertEquals(2, names.stream().filter("datafilter_encTypePrivBasedEncounterFilter_viewableTypes"::equals).count());
 	}
 	
 	@Test
@@ -133,6 +175,18 @@ public class UtilTest {
 		assertNull(Util.getMappingResource(TEST_HIBERNATE_CFG_FILE, Concept.class.getName()));
 	}
 	
+	@Test
+	public void buildMappingResourceIndex_shouldMapTheClassNamesToTheirMappingResourcesAndCfgFiles() {
+		MappingResourceIndex index = MappingResourceIndex.build(Collections.singletonList(TEST_HIBERNATE_CFG_FILE));
+		
+		assertEquals(TEST_LOCATION_HBM_FILE, index.getMappingResource(Location.class.getName()));
+		assertEquals(TEST_HIBERNATE_CFG_FILE, index.getCfgFile(Location.class.getName()));
+		assertEquals(TEST_ENC_TYPE_HBM_FILE, index.getMappingResource(EncounterType.class.getName()));
+		assertEquals(TEST_HIBERNATE_CFG_FILE, index.getCfgFile(EncounterType.class.getName()));
+		assertNull(index.getMappingResource(Concept.class.getName()));
+		assertNull(index.getCfgFile(Concept.class.getName()));
+	}
+	
 	@Test
 	public void addFilterToMappingResource_shouldAddTheFilterToTheMappingResourceName() throws Exception {
 		final String filterName = "myFilterName";
@@ -188,6 +242,37 @@ public class UtilTest {
 		assertTrue(StringUtils.isBlank(getAttribute(updatedResource, PATH_FILTER, "condition")));
 	}
 	
+	@Test
+	public void addFiltersToMappingResource_shouldAddAllTheFiltersToTheMappingResource() throws Exception {
+		HibernateFilterRegistration filterReg1 = new HibernateFilterRegistration();
+		filterReg1.setName("myFilterName1");
+		filterReg1.setDefaultCondition("voided = 0");
+		filterReg1.setCondition("location_id > 5");
+		HibernateFilterParameter param = new HibernateFilterParameter();
+		param.setName("param1");
+		param.setType("string");
+		filterReg1.setParameters(Collections.singletonList(param));
+		HibernateFilterRegistration filterReg2 = new HibernateFilterRegistration();
+		filterReg2.setName("myFilterName2");
+		filterReg2.setCondition("location_id < 10");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(TEST_LOCATION_HBM_FILE);
+		
+		Util.addFiltersToMappingResource(in, out, Arrays.asList(filterReg1, filterReg2));
+		
+		Document updatedResource = getDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(2, getCount(updatedResource, PATH_FILTER_DEF));
+		assertEquals(2, getCount(updatedResource, PATH_FILTER));
+		assertEquals(filterReg1.getDefaultCondition(),
+		    getAttribute(updatedResource, PATH_FILTER_DEF + "[@name='myFilterName1']", "condition"));
+		assertEquals(1, getCount(updatedResource, PATH_FILTER_DEF + "[@name='myFilterName1']/filter-param"));
+		assertFalse(elementExists(updatedResource, PATH_FILTER_DEF + "[@name='myFilterName2']/@condition"));
+		assertEquals(filterReg1.getCondition(),
+		    getAttribute(updatedResource, PATH_FILTER + "[@name='myFilterName1']", "condition"));
+		assertEquals(filterReg2.getCondition(),
+		    getAttribute(updatedResource, PATH_FILTER + "[@name='myFilterName2']", "condition"));
+	}
+	
 	@Test
 	public void updateResourceLocation_shouldReplaceMappingResourceLocationsWithFileLocations() throws Exception {
 		mockStatic(FileUtils.class);
@@ -205,6 +290,40 @@ public class UtilTest {
 		assertTrue(elementExists(updatedCfg, PATH_MAPPING, "resource", TEST_ENC_TYPE_HBM_FILE));
 	}
 	
+	@Test
+	public void createNewMappingFile_shouldReuseTheCachedFileIfTheMappingResourceAndFiltersAreUnchanged() throws Exception {
+		File cacheDir = Files.createTempDirectory(MODULE_ID).toFile();
+		File outputDir = new File(cacheDir, "output");
+		Whitebox.setInternalState(MappingFileCache.class, "cacheDirectory", cacheDir);
+		try {
+			HibernateFilterRegistration filterReg = new HibernateFilterRegistration();
+			filterReg.setName("myFilterName");
+			filterReg.setCondition("location_id > 5");
+			List<HibernateFilterRegistration> filterRegs = Collections.singletonList(filterReg);
+			File mappingFile = Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, outputDir);
+			assertEquals(TEST_LOCATION_HBM_FILE, mappingFile.getName());
+			assertEquals(cacheDir, mappingFile.getParentFile().getParentFile());
+			assertFalse(outputDir.exists());
+			Document doc = getDocumentBuilder().parse(mappingFile);
+			assertEquals(filterReg.getCondition(), getAttribute(doc, PATH_FILTER, "condition"));
+			//Mark the file so we can tell if it gets generated again
+			FileUtils.writeStringToFile(mappingFile, "cached", StandardCharsets.UTF_8);
+			
+			assertEquals(mappingFile, Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, outputDir));
+			assertEquals("cached", FileUtils.readFileToString(mappingFile, StandardCharsets.UTF_8));
+			
+			filterReg.setCondition("location_id > 6");
+			File newMappingFile = Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, outputDir);
+			assertNotEquals(mappingFile, newMappingFile);
+			doc = getDocumentBuilder().parse(newMappingFile);
+			assertEquals(filterReg.getCondition(), getAttribute(doc, PATH_FILTER, "condition"));
+		}
+		finally {
+			Whitebox.setInternalState(MappingFileCache.class, "cacheDirectory", (File) null);
+			FileUtils.deleteQuietly(cacheDir);
+		}
+	}
+	
 	@Test
 	public void isFilterDisabled_shouldReturnFalseIfTheDisableGPForTheFilterIsNotSet() {
 		mockStatic(Context.class);
@@ -217,7 +336,7 @@ public class UtilTest {
 	public void isFilterDisabled_shouldReturnFalseIfTheDisableGPForTheFilterIsSetToFalse() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("false"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "false"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
 		assertFalse(Util.isFilterDisabled("someFilter"));
 	}
@@ -226,9 +345,24 @@ public class UtilTest {
 	public void isFilterDisabled_shouldReturnTrueIfTheDisableGPForTheFilterISetToTrue() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("true"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "true"));
+		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
+		assertTrue(Util.isFilterDisabled("someFilter"));
+	}
+	
+	@Test
+	public void isFilterDisabled_shouldLoadTheGlobalPropertiesFromTheDatabaseOnlyOnce() {
+		mockStatic(Context.class);
+		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
+		List<List<Object>> expectedRows = Arrays.asList(Arrays.asList("someFilter" + DISABLED, "true"),
+		    Arrays.asList("otherFilter" + DISABLED, "false"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
+		
 		assertTrue(Util.isFilterDisabled("someFilter"));
+		assertFalse(Util.isFilterDisabled("otherFilter"));
+		assertFalse(Util.isFilterDisabled("unknownFilter"));
+		
+		verify(adminDAO, times(1)).executeSQL(anyString(), eq(true));
 	}
 	
 	@Test
@@ -242,7 +376,7 @@ public class UtilTest {
 	public void skipFilter_shouldReturnTrueIfTheFilterIsDisabled() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("true"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "true"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
 		final String filterName = "someFilter";
 		assertTrue(Util.skipFilter(filterName));
@@ -10,17 +10,23 @@
 package org.openmrs.module.datafilter.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.EncounterType;
 import org.openmrs.Location;
+import org.openmrs.Patient;
 import org.openmrs.Program;
+import org.openmrs.User;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.IntHashSet;
 import org.openmrs.module.datafilter.TestConstants;
 import org.openmrs.module.datafilter.impl.api.DataFilterService;
+import org.openmrs.util.PrivilegeConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 
 public class AccessUtilTest extends BaseFilterTest {
@@ -63,6 +69,42 @@ public class AccessUtilTest extends BaseFilterTest {
 		assertTrue(basisIds.contains("1"));
 	}
 	
+	@Test
+	public void getAssignedBasisIds_shouldIncludeLocationsAddedToTheHierarchyAfterTheBasisIdsAreCached() {
+		reloginAs("dyorke", "test");
+		assertEquals(2, AccessUtil.getAssignedBasisIds(Location.class).size());
+		Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+		Context.addProxyPrivilege(PrivilegeConstants.MANAGE_LOCATIONS);
+		Location location = new Location();
+		location.setName("New Child Location");
+		Context.getLocationService().getLocation(4000).addChildLocation(location);
+		Context.getLocationService().saveLocation(location);
+		Context.flushSession();
+		Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+		Context.removeProxyPrivilege(PrivilegeConstants.MANAGE_LOCATIONS);
+		
+		Collection<String> basisIds = AccessUtil.getAssignedBasisIds(Location.class);
+		
+		assertEquals(3, basisIds.size());
+		assertTrue(basisIds.contains(location.getId().toString()));
+	}
+	
+	@Test
+	public void getAssignedBasisIds_shouldIncludeDescendantLocationsFromTheLocationClosureTable() {
+		service.rebuildLocationClosure();
+		//Make Uganda a descendant of Trinidad in the closure table only
+		Context.getAdministrationService().executeSQL(
+		    "INSERT INTO datafilter_location_closure (ancestor_id, descendant_id, depth) VALUES (4000, 4002, 1)", false);
+		reloginAs("dyorke", "test");
+		
+		Collection<String> basisIds = AccessUtil.getAssignedBasisIds(Location.class);
+		
+		assertEquals(3, basisIds.size());
+		assertTrue(basisIds.contains("4000"));
+		assertTrue(basisIds.contains("1"));
+		assertTrue(basisIds.contains("4002"));
+	}
+	
 	@Test
 	public void getAssignedBasisIds_shouldReturnAnEmptyListIfNoBasisAssignedToTheAuthenticatedUser() {
 		assertEquals(0, AccessUtil.getAccessiblePersonIds(Location.class).size());
@@ -84,12 +126,90 @@ public class AccessUtilTest extends BaseFilterTest {
 		assertTrue(patientIds.contains("1003"));
 	}
 	
+	@Test
+	public void getAccessiblePersonIdSet_shouldReturnTheAccessiblePersonIdsAndPickUpAccessChanges() {
+		reloginAs("dyorke", "test");
+		IntHashSet patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		assertEquals(1, patientIds.size());
+		assertTrue(patientIds.contains(1001));
+		assertTrue(patientIds == AccessUtil.getAccessiblePersonIdSet(Location.class));
+		
+		service.grantAccess(Context.getAuthenticatedUser(), new Location(4001));
+		patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		assertEquals(3, patientIds.size());
+		assertTrue(patientIds.contains(1001));
+		assertTrue(patientIds.contains(1002));
+		assertTrue(patientIds.contains(1003));
+	}
+	
+	@Test
+	public void getAccessiblePersonIdSet_shouldIncludePersonsAtDescendantLocationsFromTheLocationClosureTable() {
+		service.rebuildLocationClosure();
+		//Make Uganda a descendant of Trinidad in the closure table only
+		Context.getAdministrationService().executeSQL(
+		    "INSERT INTO datafilter_location_closure (ancestor_id, descendant_id, depth) VALUES (4000, 4002, 1)", false);
+		reloginAs("dyorke", "test");
+		
+		IntHashSet patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		
+		assertEquals(2, patientIds.size());
+		assertTrue(patientIds.contains(1001));
+		assertTrue(patientIds.contains(1003));
+	}
+	
+	@Test
+	public void getAccessiblePersonIdSet_shouldIncludePatientsAtLocationsAddedToTheHierarchy() {
+		Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+		Context.addProxyPrivilege(PrivilegeConstants.MANAGE_LOCATIONS);
+		Location location = new Location();
+		location.setName("Kampala");
+		Context.getLocationService().getLocation(4000).addChildLocation(location);
+		Context.getLocationService().saveLocation(location);
+		Context.flushSession();
+		Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+		Context.removeProxyPrivilege(PrivilegeConstants.MANAGE_LOCATIONS);
+		service.grantAccess(new Patient(1002), location);
+		reloginAs("dyorke", "test");
+		
+		IntHashSet patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		
+		assertEquals(2, patientIds.size());
+		assertTrue(patientIds.contains(1001));
+		assertTrue(patientIds.contains(1002));
+	}
+	
+	@Test
+	public void getAccessiblePersonIdSet_shouldReturnTheSameInstanceForUsersGrantedAccessToTheSameBases() {
+		User user = Context.getUserService().getUser(3001);
+		service.grantAccess(user, new Location(4000));
+		service.grantAccess(user, new Location(1));
+		reloginAs("dyorke", "test");
+		IntHashSet patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		
+		reloginAs("dBeckham", "test");
+		
+		assertTrue(patientIds == AccessUtil.getAccessiblePersonIdSet(Location.class));
+	}
+	
 	@Test
 	public void getViewPrivilege_shouldReturnTheTheEncounterViewPrivilege() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
 		assertEquals("Manage Chemo Patients", AccessUtil.getViewPrivilege(5000));
 	}
 	
+	@Test
+	public void getViewPrivilege_shouldPickUpChangesToTheViewPrivilegeOfAnEncounterType() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
+		assertEquals("Manage Chemo Patients", AccessUtil.getViewPrivilege(5000));
+		EncounterType encounterType = Context.getEncounterService().getEncounterType(5000);
+		encounterType.setViewPrivilege(null);
+		
+		Context.getEncounterService().saveEncounterType(encounterType);
+		Context.flushSession();
+		
+		assertNull(AccessUtil.getViewPrivilege(5000));
+	}
+	
 	@Test
 	public void getAllProgramRoles_shouldReturnAllTheProgramRelatedRoles() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "persons.xml");
@@ -11,6 +11,7 @@ package org.openmrs.module.datafilter.impl;
 
 import java.util.Properties;
 
+import org.dbunit.dataset.IDataSet;
 import org.hibernate.cfg.Environment;
 import org.junit.After;
 import org.junit.Before;
@@ -19,7 +20,9 @@ import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UsernamePasswordCredentials;
 import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 import org.openmrs.module.datafilter.TestConstants;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.util.PrivilegeConstants;
 
@@ -38,6 +41,23 @@ public abstract class BaseFilterTest extends BaseModuleContextSensitiveTest {
 		executeDataSet(TestConstants.MODULE_TEST_DATASET_XML);
 	}
 	
+	/**
+	 * Datasets are inserted directly into the database, so we populate the location closure table like
+	 * the module's migration does and clear any cached access data, encounter type view privileges,
+	 * global properties and filter activation plans since they might have become stale.
+	 *
+	 * @see org.openmrs.test.BaseContextSensitiveTest#executeDataSet(IDataSet)
+	 */
+	@Override
+	public void executeDataSet(IDataSet dataset) {
+		super.executeDataSet(dataset);
+		Context.getService(DataFilterService.class).rebuildLocationClosure();
+		AccessUtil.clearCache();
+		AccessUtil.clearViewPrivilegeCache();
+		GlobalPropertyCache.clear();
+		DataFilterSessionContext.clearActivationPlans();
+	}
+	
 	protected void reloginAs(String username, String password) {
 		Context.logout();
 		Context.authenticate(new UsernamePasswordCredentials(username, password));
@@ -31,6 +31,7 @@ import org.openmrs.Privilege;
 import org.openmrs.Role;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.DataFilterConstants;
 import org.openmrs.util.PrivilegeConstants;
 
 public class DataFilterTestUtils {
@@ -67,6 +68,11 @@ public class DataFilterTestUtils {
 		Context.flushSession();
 	}
 	
+	public static void setFilterVariant(String variant) {
+		Context.getAdministrationService().setGlobalProperty(DataFilterConstants.GP_FILTER_VARIANT, variant);
+		Context.flushSession();
+	}
+	
 	public static void addPrivilege(String privilege) {
 		Context.addProxyPrivilege(PrivilegeConstants.MANAGE_ROLES);
 		try {
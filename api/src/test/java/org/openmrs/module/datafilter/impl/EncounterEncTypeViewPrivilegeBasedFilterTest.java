@@ -10,6 +10,7 @@
 package org.openmrs.module.datafilter.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
@@ -75,6 +76,25 @@ public class EncounterEncTypeViewPrivilegeBasedFilterTest extends BaseEncTypeVie
 		assertTrue(TestUtil.containsId(encounters, 2001));
 	}
 	
+	@Test
+	public void getEncounters_shouldIncludeEncountersThatRequireAPrivilegeAndTheUserHasItWhenUsingTheViewableTypesVariant() {
+		DataFilterTestUtils.setFilterVariant("viewableTypes");
+		reloginAs("dyorke", "test");
+		final String name = "Navuga";
+		int expCount = 3;
+		assertEquals(expCount, encounterService.getCountOfEncounters(name, false).intValue());
+		Collection<Encounter> encounters = encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false);
+		assertEquals(expCount, encounters.size());
+		assertFalse(TestUtil.containsId(encounters, 2001));
+		
+		DataFilterTestUtils.addPrivilege(PRIV_MANAGE_CHEMO_PATIENTS);
+		expCount = 4;
+		assertEquals(expCount, encounterService.getCountOfEncounters(name, false).intValue());
+		encounters = encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false);
+		assertEquals(expCount, encounters.size());
+		assertTrue(TestUtil.containsId(encounters, 2001));
+	}
+	
 	@Test
 	public void getEncounters_shouldReturnAllEncountersIfTheAuthenticatedUserIsASuperUser() {
 		assertTrue(Context.getAuthenticatedUser().isSuperUser());
@@ -121,4 +141,15 @@ public class EncounterEncTypeViewPrivilegeBasedFilterTest extends BaseEncTypeVie
 		assertEquals(4, visitService.getVisit(10001).getEncounters().size());
 	}
 	
+	@Test
+	public void getVisits_shouldExcludePrivilegedEncountersOfTheVisitWhenUsingTheViewableTypesVariant() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "visitWithEncounters.xml");
+		DataFilterTestUtils.setFilterVariant("viewableTypes");
+		reloginAs("dBeckham", "test");
+		Set<Encounter> encounters = visitService.getVisit(10001).getEncounters();
+		assertEquals(2, encounters.size());
+		assertTrue(TestUtil.containsId(encounters, 20001));
+		assertTrue(TestUtil.containsId(encounters, 20002));
+	}
+	
 }
@@ -68,6 +68,28 @@ public class EncounterLocationBasedFilterTest extends BaseFilterTest {
 		assertTrue(TestUtil.containsId(encounters, 1002));
 	}
 	
+	@Test
+	public void getEncounters_shouldReturnEncountersBelongingToPatientsAccessibleToTheUserWhenUsingTheExistsVariant() {
+		DataFilterTestUtils.setFilterVariant("exists");
+		reloginAs("dyorke", "test");
+		final String name = "Navuga";
+		int expCount = 2;
+		assertEquals(expCount, encounterService.getCountOfEncounters(name, false).intValue());
+		Collection<Encounter> encounters = encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false);
+		assertEquals(expCount, encounters.size());
+		assertTrue(TestUtil.containsId(encounters, 1000));
+		assertTrue(TestUtil.containsId(encounters, 1001));
+		
+		service.grantAccess(Context.getAuthenticatedUser(), new Location(4001));
+		expCount = 3;
+		assertEquals(expCount, encounterService.getCountOfEncounters(name, false).intValue());
+		encounters = encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false);
+		assertEquals(expCount, encounters.size());
+		assertTrue(TestUtil.containsId(encounters, 1000));
+		assertTrue(TestUtil.containsId(encounters, 1001));
+		assertTrue(TestUtil.containsId(encounters, 1002));
+	}
+	
 	@Test
 	public void getEncounters_shouldReturnAllEncountersIfTheAuthenticatedUserIsASuperUser() {
 		assertTrue(Context.getAuthenticatedUser().isSuperUser());
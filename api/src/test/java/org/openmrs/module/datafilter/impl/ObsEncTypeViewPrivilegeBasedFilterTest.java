@@ -26,6 +26,7 @@ import org.openmrs.Person;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.TestConstants;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.openmrs.test.TestUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -66,6 +67,38 @@ public class ObsEncTypeViewPrivilegeBasedFilterTest extends BaseEncTypeViewPrivi
 		assertTrue(TestUtil.containsId(observations, 1005));
 	}
 	
+	@Test
+	public void getEncounters_shouldIncludeObsLinkedToEncountersThatRequireAPrivilegeAndTheUserHasItWhenUsingTheViewableTypesVariant() {
+		DataFilterTestUtils.setFilterVariant("viewableTypes");
+		reloginAs("dyorke", "test");
+		Collection<Obs> observations = getObservations();
+		assertEquals(1, observations.size());
+		assertTrue(TestUtil.containsId(observations, 1005));
+		
+		DataFilterTestUtils.addPrivilege(PRIV_MANAGE_CHEMO_PATIENTS);
+		observations = getObservations();
+		assertEquals(2, observations.size());
+		assertTrue(TestUtil.containsId(observations, 1004));
+		assertTrue(TestUtil.containsId(observations, 1005));
+	}
+	
+	@Test
+	public void getEncounters_shouldIncludeObsLinkedToEncountersThatRequireAPrivilegeAndTheUserHasItWhenUsingTheVisibilityVariant() {
+		//The encounters in the dataset were inserted via raw SQL
+		Context.getService(DataFilterService.class).rebuildEncounterVisibility();
+		DataFilterTestUtils.setFilterVariant("visibility");
+		reloginAs("dyorke", "test");
+		Collection<Obs> observations = getObservations();
+		assertEquals(1, observations.size());
+		assertTrue(TestUtil.containsId(observations, 1005));
+		
+		DataFilterTestUtils.addPrivilege(PRIV_MANAGE_CHEMO_PATIENTS);
+		observations = getObservations();
+		assertEquals(2, observations.size());
+		assertTrue(TestUtil.containsId(observations, 1004));
+		assertTrue(TestUtil.containsId(observations, 1005));
+	}
+	
 	@Test
 	public void getObs_shouldReturnAllObsIfTheAuthenticatedUserIsASuperUser() {
 		assertTrue(Context.getAuthenticatedUser().isSuperUser());
@@ -13,6 +13,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import org.hibernate.Criteria;
 import org.hibernate.Session;
@@ -132,6 +133,28 @@ public class PatientLocationBasedFilterTest extends BaseFilterTest {
 		assertTrue(TestUtil.containsId(patients, 1503));
 	}
 	
+	@Test
+	public void getPatients_shouldReturnPatientsByNameAccessibleToTheUserIfTheirLocationsAreIndexed() {
+		Context.getAdministrationService().setGlobalProperty(ImplConstants.GP_FULL_TEXT_INDEXED_PAT_LOC_ENABLED, "true");
+		reloginAs("dyorke", "test");
+		int expCount = 2;
+		assertEquals(expCount, patientService.getCountOfPatients(PATIENT_NAME).intValue());
+		Collection<Patient> patients = patientService.getPatients(PATIENT_NAME);
+		assertEquals(expCount, patients.size());
+		assertTrue(TestUtil.containsId(patients, 1501));
+		assertTrue(TestUtil.containsId(patients, 1503));
+		
+		service.grantAccess(new Patient(1502), new Location(4000));
+		service.updatePatientSearchIndex(Collections.singleton(1502));
+		expCount = 3;
+		assertEquals(expCount, patientService.getCountOfPatients(PATIENT_NAME).intValue());
+		patients = patientService.getPatients(PATIENT_NAME);
+		assertEquals(expCount, patients.size());
+		assertTrue(TestUtil.containsId(patients, 1501));
+		assertTrue(TestUtil.containsId(patients, 1502));
+		assertTrue(TestUtil.containsId(patients, 1503));
+	}
+	
 	@Test
 	public void getPatients_shouldReturnPatientsByIdentifierAccessibleToTheUser() {
 		reloginAs("dyorke", "test");
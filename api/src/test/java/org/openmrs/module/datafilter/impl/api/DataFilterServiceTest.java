@@ -9,21 +9,35 @@
  */
 package org.openmrs.module.datafilter.impl.api;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.Encounter;
 import org.openmrs.Location;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Program;
+import org.openmrs.Role;
 import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.TestConstants;
 import org.openmrs.module.datafilter.impl.BaseFilterTest;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.ImplConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 
 public class DataFilterServiceTest extends BaseFilterTest {
@@ -106,4 +120,164 @@ public class DataFilterServiceTest extends BaseFilterTest {
 		Collection<EntityBasisMap> map = service.getEntityBasisMapsByBasis(User.class, location);
 		Assert.assertEquals(2, map.size());
 	}
+	
+	@Test
+	public void rebuildLocationClosure_shouldSynchronizeTheLocationClosureTableWithTheLocationHierarchy() {
+		final String query = "SELECT depth FROM datafilter_location_closure WHERE ancestor_id = 4001 AND descendant_id = ";
+		AdministrationService as = Context.getAdministrationService();
+		//Should add missing rows
+		as.executeSQL("DELETE FROM datafilter_location_closure WHERE descendant_id = 4002", false);
+		assertEquals(0, as.executeSQL(query + 4002, true).size());
+		
+		service.rebuildLocationClosure();
+		
+		assertEquals(1, ((Number) as.executeSQL(query + 4002, true).get(0).get(0)).intValue());
+		assertEquals(0, ((Number) as.executeSQL(query + 4001, true).get(0).get(0)).intValue());
+		assertEquals(0, as.executeSQL(query + 4000, true).size());
+		
+		//Should remove stale rows
+		as.executeSQL("INSERT INTO datafilter_location_closure (ancestor_id, descendant_id, depth) VALUES (4001, 4000, 1)",
+		    false);
+		
+		service.rebuildLocationClosure();
+		
+		assertEquals(0, as.executeSQL(query + 4000, true).size());
+		assertEquals(1, ((Number) as.executeSQL(query + 4002, true).get(0).get(0)).intValue());
+	}
+	
+	@Test
+	public void rebuildEncounterVisibility_shouldSynchronizeTheEncounterVisibilityTableWithTheEncounters() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "encounters.xml");
+		final String query = "SELECT encounter_type FROM datafilter_encounter_visibility WHERE encounter_id = ";
+		AdministrationService as = Context.getAdministrationService();
+		as.executeSQL("INSERT INTO datafilter_encounter_visibility (encounter_id, encounter_type) VALUES (99999, 2)", false);
+		assertTrue(service.checkEncounterVisibility() > 0);
+		
+		service.rebuildEncounterVisibility();
+		
+		assertEquals(0, service.checkEncounterVisibility());
+		assertEquals(2, ((Number) as.executeSQL(query + 1000, true).get(0).get(0)).intValue());
+		assertEquals(0, as.executeSQL(query + 99999, true).size());
+	}
+	
+	@Test
+	public void rebuildEncounterVisibility_shouldBeKeptInSyncWhenTheTypeOfAnEncounterIsChanged() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "encounters.xml");
+		service.rebuildEncounterVisibility();
+		EncounterService es = Context.getEncounterService();
+		Encounter encounter = es.getEncounter(1000);
+		encounter.setEncounterType(es.getEncounterType(1));
+		
+		es.saveEncounter(encounter);
+		Context.flushSession();
+		
+		assertEquals(0, service.checkEncounterVisibility());
+		List<List<Object>> rows = Context.getAdministrationService()
+		        .executeSQL("SELECT encounter_type FROM datafilter_encounter_visibility WHERE encounter_id = 1000", true);
+		assertEquals(1, ((Number) rows.get(0).get(0)).intValue());
+	}
+	
+	@Test
+	public void grantAccess_shouldSetTheNumericEntityAndBasisIds() {
+		User user = new User(3000);
+		Location location = new Location(4001);
+		
+		service.grantAccess(user, location);
+		
+		EntityBasisMap map = service.getEntityBasisMaps(user, Location.class.getName()).stream()
+		        .filter(m -> "4001".equals(m.getBasisIdentifier())).findFirst().get();
+		assertEquals(3000, map.getEntityId().intValue());
+		assertEquals(4001, map.getBasisId().intValue());
+	}
+	
+	@Test
+	public void grantAccess_shouldSetTheNumericIdOfAnEntityIdentifiedByNameToTheNonNumericId() {
+		service.grantAccess(new Role("Some made up role"), new Program(2));
+		
+		EntityBasisMap map = service.getEntityBasisMaps(new Role("Some made up role"), Program.class.getName()).stream()
+		        .filter(m -> "2".equals(m.getBasisIdentifier())).findFirst().get();
+		assertEquals(ImplConstants.NON_NUMERIC_ID, map.getEntityId().intValue());
+		assertEquals(2, map.getBasisId().intValue());
+	}
+	
+	@Test
+	public void grantAccess_shouldSetTheTypeCodes() {
+		User user = new User(3000);
+		Location location = new Location(4001);
+		
+		service.grantAccess(user, location);
+		
+		EntityBasisMap map = service.getEntityBasisMaps(user, Location.class.getName()).stream()
+		        .filter(m -> "4001".equals(m.getBasisIdentifier())).findFirst().get();
+		assertEquals(ImplConstants.TYPE_CODE_USER, map.getEntityTypeCode().shortValue());
+		assertEquals(ImplConstants.TYPE_CODE_LOCATION, map.getBasisTypeCode().shortValue());
+	}
+	
+	@Test
+	public void grantAccess_shouldGrantEachEntityAccessToRecordsAtTheirBasesInBulk() {
+		User user1 = new User(501);
+		User user2 = new User(3000);
+		Location location1 = new Location(1);
+		Location location2 = new Location(4000);
+		Location location3 = new Location(4001);
+		Map<User, List<Location>> userAndLocations = new HashMap<>();
+		userAndLocations.put(user1, Arrays.asList(location1, location3, location3));
+		userAndLocations.put(user2, Arrays.asList(location2, location3));
+		assertFalse(service.hasAccess(user1, location1));
+		assertFalse(service.hasAccess(user1, location3));
+		assertTrue(service.hasAccess(user2, location2));
+		assertFalse(service.hasAccess(user2, location3));
+		
+		service.grantAccess(userAndLocations);
+		
+		assertTrue(service.hasAccess(user1, location1));
+		assertTrue(service.hasAccess(user1, location3));
+		assertTrue(service.hasAccess(user2, location2));
+		assertTrue(service.hasAccess(user2, location3));
+		assertEquals(1, service.getEntityBasisMaps(user1, Location.class.getName()).stream()
+		        .filter(m -> "4001".equals(m.getBasisIdentifier())).count());
+	}
+	
+	@Test
+	public void revokeAccess_shouldRevokeAccessForEachEntityToRecordsAtTheirBasesInBulk() {
+		User user1 = new User(501);
+		User user2 = new User(3000);
+		Location location1 = new Location(1);
+		Location location2 = new Location(4000);
+		Map<User, List<Location>> userAndLocations = new HashMap<>();
+		userAndLocations.put(user1, Arrays.asList(location1, location2));
+		userAndLocations.put(user2, Arrays.asList(location1, location2));
+		assertFalse(service.hasAccess(user1, location1));
+		assertTrue(service.hasAccess(user1, location2));
+		assertTrue(service.hasAccess(user2, location1));
+		assertTrue(service.hasAccess(user2, location2));
+		
+		service.revokeAccess(userAndLocations);
+		
+		assertFalse(service.hasAccess(user1, location1));
+		assertFalse(service.hasAccess(user1, location2));
+		assertFalse(service.hasAccess(user2, location1));
+		assertFalse(service.hasAccess(user2, location2));
+	}
+	
+	@Test
+	public void backfillPatientLocations_shouldLinkPatientsWithoutLocationsToTheLocationsOfTheirRecords() {
+		Patient patient = new Patient(7);
+		Location location = new Location(1);
+		assertFalse(service.hasAccess(patient, location));
+		
+		int batches = 0;
+		Integer lastPatientId = null;
+		Integer nextPatientId;
+		while ((nextPatientId = service.backfillPatientLocations(lastPatientId, 2)) != null) {
+			assertTrue(lastPatientId == null || nextPatientId > lastPatientId);
+			lastPatientId = nextPatientId;
+			batches++;
+		}
+		
+		assertTrue(batches > 1);
+		assertTrue(service.hasAccess(patient, location));
+		assertEquals(1, service.getEntityBasisMaps(new Patient(1001), Location.class.getName()).size());
+		assertNull(service.backfillPatientLocations(lastPatientId, 2));
+	}
 }
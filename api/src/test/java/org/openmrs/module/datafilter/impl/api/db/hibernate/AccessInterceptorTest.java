@@ -22,13 +22,6 @@ import static org.openmrs.module.datafilter.impl.ImplConstants.LOCATION_BASED_FI
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.type.ManyToOneType;
 import org.hibernate.type.Type;
 import org.hibernate.type.TypeFactory;
@@ -48,11 +41,12 @@ import org.openmrs.Patient;
 import org.openmrs.Role;
 import org.openmrs.User;
 import org.openmrs.Visit;
-import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Daemon;
 import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
+import org.openmrs.module.datafilter.IntHashSet;
 import org.openmrs.module.datafilter.Util;
 import org.openmrs.module.datafilter.impl.AccessUtil;
 import org.openmrs.module.datafilter.impl.ImplConstants;
@@ -62,7 +56,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 @RunWith(PowerMockRunner.class)
 @PowerMockIgnore({ "javax.management.*" })
-@PrepareForTest({ AccessUtil.class, Util.class, Context.class, Daemon.class })
+@PrepareForTest({ AccessUtil.class, Util.class, Context.class, Daemon.class, GlobalPropertyCache.class })
 public class AccessInterceptorTest {
 	
 	private AccessInterceptor interceptor = new AccessInterceptor();
@@ -70,8 +64,6 @@ public class AccessInterceptorTest {
 	@Rule
 	public ExpectedException ee = ExpectedException.none();
 	
-	private AdministrationService adminService = null;
-	
 	private String threadName;
 	
 	@Before
@@ -80,14 +72,10 @@ public class AccessInterceptorTest {
 		mockStatic(Context.class);
 		mockStatic(AccessUtil.class);
 		mockStatic(Util.class);
-		adminService = mock(AdministrationService.class);
-		when(Context.getAdministrationService()).thenReturn(adminService);
-		SessionFactory sf = mock(SessionFactory.class);
-		when(sf.getCurrentSession()).thenReturn(mock(Session.class));
-		when(Context.getRegisteredComponents(eq(SessionFactory.class))).thenReturn(Collections.singletonList(sf));
+		mockStatic(GlobalPropertyCache.class);
 		when(Util.skipFilter(anyString())).thenCallRealMethod();
 		when(Util.isFilterDisabled(anyString())).thenReturn(false);
-		when(adminService.getGlobalProperty(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("true");
+		when(GlobalPropertyCache.getValue(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("true");
 	}
 	
 	@After
@@ -98,13 +86,22 @@ public class AccessInterceptorTest {
 		}
 	}
 	
+	private IntHashSet createIntSet(int... values) {
+		IntHashSet set = new IntHashSet();
+		for (int value : values) {
+			set.add(value);
+		}
+		
+		return set;
+	}
+	
 	@Test
 	public void onLoad_shouldFailWithAnExceptionIfTheAuthenticatedUserIsNotAllowedToViewThePatientGettingLoaded() {
 		final Integer userId = 1;
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of("1", "4").collect(Collectors.toSet());
+		IntHashSet accessiblePatientIds = createIntSet(1, 4);
 		when(Context.getAuthenticatedUser()).thenReturn(new User(userId));
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		ee.expect(ContextAuthenticationException.class);
 		ee.expectMessage(equalTo(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE));
 		interceptor.onLoad(new Patient(), patientId, null, null, null);
@@ -114,9 +111,9 @@ public class AccessInterceptorTest {
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientGettingLoaded() {
 		final Integer userId = 1;
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntHashSet accessiblePatientIds = createIntSet(patientId);
 		when(Context.getAuthenticatedUser()).thenReturn(new User(userId));
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Patient(), patientId, null, null, null);
 	}
 	
@@ -147,7 +144,7 @@ public class AccessInterceptorTest {
 	
 	@Test
 	public void onLoad_shouldPassIfTheInterceptorIsDisabled() {
-		when(adminService.getGlobalProperty(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("false");
+		when(GlobalPropertyCache.getValue(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("false");
 		interceptor.onLoad(new Patient(), null, null, null, null);
 	}
 	
@@ -265,29 +262,29 @@ public class AccessInterceptorTest {
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientVisitGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntHashSet accessiblePatientIds = createIntSet(patientId);
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Visit(), null, new Object[] { new Patient(patientId) }, new String[] { "patient" }, null);
 	}
 	
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientEncounterGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntHashSet accessiblePatientIds = createIntSet(patientId);
 		when(Util.isFilterDisabled(startsWith(ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Encounter(), null, new Object[] { new Patient(101) }, new String[] { "patient" }, null);
 	}
 	
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewTheObsGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntHashSet accessiblePatientIds = createIntSet(patientId);
 		when(Util.isFilterDisabled(startsWith(ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Obs(), null, new Object[] { new Patient(patientId) }, new String[] { "person" }, null);
 	}
 	